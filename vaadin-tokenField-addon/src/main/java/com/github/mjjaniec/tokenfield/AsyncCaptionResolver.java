@@ -0,0 +1,196 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Resolves the captions of the tokens of one {@link TokenField} on an
+ * executor, so the session lock is not held while a caption provider queries
+ * its backend.
+ * <p>
+ * Apart from the executor task, everything runs with the session locked. The
+ * captions requested during a batch are resolved by one task; the results of
+ * the tasks finishing while the session is busy are applied together, by one
+ * {@link UI#access(Runnable)}.
+ * </p>
+ */
+class AsyncCaptionResolver {
+
+    private final Executor executor;
+
+    private final TokenCaptionProvider provider;
+
+    /**
+     * The resolved captions of the tokens
+     */
+    private final Map<String, String> captions = new HashMap<>();
+
+    /**
+     * The tokens whose captions are to be requested by the next task
+     */
+    private final Set<String> requested = new LinkedHashSet<>();
+
+    /**
+     * The tasks resolving the captions, by token
+     */
+    private final Map<String, Request> pending = new HashMap<>();
+
+    private final Queue<Request> completed = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+
+    private volatile TokenFieldMetrics metrics = TokenFieldMetrics.NONE;
+
+    private static final class Request {
+        /**
+         * The tokens whose captions are still wanted
+         */
+        final Set<String> remaining;
+        Future<?> future;
+        Map<String, String> result;
+
+        Request(List<String> tokenIds) {
+            remaining = new LinkedHashSet<>(tokenIds);
+        }
+    }
+
+    AsyncCaptionResolver(Executor executor, TokenCaptionProvider provider) {
+        this.executor = executor;
+        this.provider = provider;
+    }
+
+    /**
+     * Gets the caption of a token if resolved, otherwise requests it.
+     *
+     * @return the caption, or <code>null</code> if not resolved yet
+     */
+    String getCaption(String tokenId) {
+        String caption = captions.get(tokenId);
+        if (caption == null && !pending.containsKey(tokenId)) {
+            requested.add(tokenId);
+        }
+        return caption;
+    }
+
+    /**
+     * Starts resolving the requested captions; <code>apply</code> receives
+     * the resolved captions within {@link UI#access(Runnable)}.
+     */
+    void submit(UI ui, Consumer<Map<String, String>> apply) {
+        if (ui == null || requested.isEmpty()) {
+            return;
+        }
+        List<String> tokenIds = new ArrayList<>(requested);
+        requested.clear();
+        Request request = new Request(tokenIds);
+        for (String tokenId : tokenIds) {
+            pending.put(tokenId, request);
+        }
+        CompletableFuture<Map<String, String>> future = CompletableFuture.supplyAsync(
+                () -> resolve(tokenIds), executor);
+        request.future = future;
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            // on failure the tokens keep their ids as captions
+            request.result = result != null ? result : Collections.emptyMap();
+            completed.add(request);
+            if (applyScheduled.compareAndSet(false, true)) {
+                try {
+                    ui.access(() -> apply(apply));
+                } catch (UIDetachedException e) {
+                    // nothing to show the captions in; a later result may
+                    // come with a UI to apply them all in
+                    applyScheduled.set(false);
+                }
+            }
+        });
+    }
+
+    private Map<String, String> resolve(List<String> tokenIds) {
+        TokenFieldMetrics metrics = this.metrics;
+        if (metrics == TokenFieldMetrics.NONE) {
+            return provider.getCaptions(tokenIds);
+        }
+        long start = System.nanoTime();
+        try {
+            return provider.getCaptions(tokenIds);
+        } finally {
+            metrics.captionsResolved(tokenIds.size(), System.nanoTime() - start);
+        }
+    }
+
+    private void apply(Consumer<Map<String, String>> apply) {
+        applyScheduled.set(false);
+        Map<String, String> resolved = new HashMap<>();
+        Request request;
+        while ((request = completed.poll()) != null) {
+            for (String tokenId : request.remaining) {
+                if (pending.get(tokenId) == request) {
+                    pending.remove(tokenId);
+                    String caption = request.result.get(tokenId);
+                    caption = caption != null ? caption : tokenId;
+                    captions.put(tokenId, caption);
+                    resolved.put(tokenId, caption);
+                }
+            }
+        }
+        if (!resolved.isEmpty()) {
+            apply.accept(resolved);
+        }
+    }
+
+    /**
+     * Forgets the caption of a removed token; the task resolving it is
+     * cancelled unless it resolves other wanted captions too.
+     */
+    void cancel(String tokenId) {
+        captions.remove(tokenId);
+        requested.remove(tokenId);
+        Request request = pending.remove(tokenId);
+        if (request != null) {
+            request.remaining.remove(tokenId);
+            if (request.remaining.isEmpty()) {
+                request.future.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Cancels all the tasks.
+     */
+    void cancelAll() {
+        for (Request request : pending.values()) {
+            request.future.cancel(false);
+        }
+        pending.clear();
+        requested.clear();
+    }
+
+    void setMetrics(TokenFieldMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Gets the number of tokens whose captions are being resolved.
+     */
+    int getPendingCount() {
+        return pending.size() + requested.size();
+    }
+}
@@ -0,0 +1,152 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.UI;
+import com.vaadin.ui.UIDetachedException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Tracks the checks of the tokens input into one {@link TokenField} by an
+ * {@link AsyncTokenValidator}.
+ * <p>
+ * Apart from the completion of a check, everything runs with the session
+ * locked. The verdicts arriving while the session is busy are applied
+ * together, by one {@link UI#access(Runnable)}.
+ * </p>
+ */
+class AsyncTokenAcceptor {
+
+    static final class Check {
+        final String tokenId;
+        /**
+         * Whether the token was typed rather than a selected suggestion
+         */
+        final boolean typed;
+        CompletableFuture<Boolean> future;
+        boolean accepted;
+
+        Check(String tokenId, boolean typed) {
+            this.tokenId = tokenId;
+            this.typed = typed;
+        }
+    }
+
+    private final AsyncTokenValidator validator;
+
+    /**
+     * The checks in progress, by token, in input order
+     */
+    private final Map<String, Check> pending = new LinkedHashMap<>();
+
+    private final Queue<Check> completed = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean applyScheduled = new AtomicBoolean();
+
+    AsyncTokenAcceptor(AsyncTokenValidator validator) {
+        this.validator = validator;
+    }
+
+    /**
+     * Starts checking a token, unless it is being checked already;
+     * <code>apply</code> receives the finished checks within
+     * {@link UI#access(Runnable)}.
+     *
+     * @return whether a check was started
+     */
+    boolean submit(String tokenId, boolean typed, UI ui, Consumer<List<Check>> apply) {
+        if (pending.containsKey(tokenId)) {
+            return false;
+        }
+        Check check = new Check(tokenId, typed);
+        CompletableFuture<Boolean> future = validator.validate(tokenId).toCompletableFuture();
+        check.future = future;
+        pending.put(tokenId, check);
+        future.whenComplete((verdict, error) -> {
+            if (future.isCancelled()) {
+                return;
+            }
+            check.accepted = Boolean.TRUE.equals(verdict);
+            completed.add(check);
+            if (applyScheduled.compareAndSet(false, true)) {
+                try {
+                    ui.access(() -> apply(apply));
+                } catch (UIDetachedException e) {
+                    // the user is gone, and so is the field; a later verdict
+                    // may come with a UI to apply them all in
+                    applyScheduled.set(false);
+                }
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Checks a token, waiting for the verdict.
+     *
+     * @return whether the token is accepted
+     */
+    boolean check(String tokenId) {
+        try {
+            return Boolean.TRUE.equals(validator.validate(tokenId).toCompletableFuture().join());
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private void apply(Consumer<List<Check>> apply) {
+        applyScheduled.set(false);
+        List<Check> done = new ArrayList<>();
+        Check check;
+        while ((check = completed.poll()) != null) {
+            if (pending.get(check.tokenId) == check) {
+                pending.remove(check.tokenId);
+                done.add(check);
+            }
+        }
+        if (!done.isEmpty()) {
+            apply.accept(done);
+        }
+    }
+
+    boolean isPending(String tokenId) {
+        return pending.containsKey(tokenId);
+    }
+
+    Set<String> getPendingTokens() {
+        return Collections.unmodifiableSet(pending.keySet());
+    }
+
+    /**
+     * Cancels the check of a token.
+     *
+     * @return whether the token was being checked
+     */
+    boolean cancel(String tokenId) {
+        Check check = pending.remove(tokenId);
+        if (check == null) {
+            return false;
+        }
+        check.future.cancel(true);
+        return true;
+    }
+
+    /**
+     * Cancels all the checks.
+     */
+    void cancelAll() {
+        for (Check check : pending.values()) {
+            check.future.cancel(true);
+        }
+        pending.clear();
+    }
+}
@@ -0,0 +1,28 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Checks asynchronously whether a token input by the user is accepted, e.g.
+ * by asking a remote directory whether an address exists, so the session is
+ * not kept locked meanwhile; see
+ * {@link TokenField#setAsyncTokenValidator(AsyncTokenValidator)}.
+ * <p>
+ * The checks of several tokens may be in progress at the same time. A check
+ * is cancelled if the user removes its token first, so an implementation may
+ * stop the work when the returned stage is cancelled.
+ * </p>
+ */
+@FunctionalInterface
+public interface AsyncTokenValidator extends Serializable {
+
+    /**
+     * Starts checking the given token.
+     *
+     * @param tokenId the token input by the user
+     * @return the verdict: <code>true</code> if the token is accepted; a
+     * <code>false</code> or failed verdict rejects the token
+     */
+    CompletionStage<Boolean> validate(String tokenId);
+}
@@ -0,0 +1,47 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A caption provider answering from a shared {@link CaptionCache}, going to
+ * the wrapped caption provider only for the captions not cached yet, all in
+ * one call. All the caching caption providers with the same vocabulary id
+ * share the cached captions.
+ */
+public class CachingCaptionProvider implements TokenCaptionProvider {
+
+    private final CaptionCache cache;
+
+    private final String vocabularyId;
+
+    private final TokenCaptionProvider source;
+
+    /**
+     * Creates a caption provider caching the captions of the given one.
+     *
+     * @param cache        the cache to use
+     * @param vocabularyId identifies the captions of the source in the cache
+     * @param source       the caption provider to cache
+     */
+    public CachingCaptionProvider(CaptionCache cache, String vocabularyId, TokenCaptionProvider source) {
+        this.cache = Objects.requireNonNull(cache);
+        this.vocabularyId = Objects.requireNonNull(vocabularyId);
+        this.source = Objects.requireNonNull(source);
+    }
+
+    /**
+     * Gets the wrapped caption provider.
+     *
+     * @return the caption provider whose captions are cached
+     */
+    public TokenCaptionProvider getSource() {
+        return source;
+    }
+
+    @Override
+    public Map<String, String> getCaptions(Collection<String> tokenIds) {
+        return cache.getCaptions(vocabularyId, tokenIds, source);
+    }
+}
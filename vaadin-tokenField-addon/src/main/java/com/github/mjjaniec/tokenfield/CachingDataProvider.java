@@ -0,0 +1,102 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.Query;
+import com.vaadin.server.SerializableBiPredicate;
+
+import java.util.Collections;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A data provider of suggestions answering its queries from a shared
+ * {@link SuggestionCache}, going to the wrapped data provider only on a miss.
+ * All the caching data providers with the same vocabulary id share the cached
+ * results, so the id must identify the suggestions a filter gives, including
+ * how the filter is matched.
+ * <p>
+ * New tokens are passed on to the wrapped data provider if it is a
+ * {@link TokenSink}; only the cached queries whose filter matches the new token
+ * are evicted. By default a token is taken to match a filter it contains, or
+ * that it {@link TokenField.FilteringMode#FUZZY fuzzily} starts with, which
+ * covers all the filtering modes; sort orders of queries are ignored.
+ * </p>
+ *
+ * @see TokenField#setDataProvider(DataProvider)
+ */
+public class CachingDataProvider extends AbstractBackEndDataProvider<String, String> implements TokenSink {
+
+    private static final SerializableBiPredicate<String, String> ANY_MODE = TokenField::mayMatch;
+
+    private final SuggestionCache cache;
+
+    private final String vocabularyId;
+
+    private final DataProvider<String, String> source;
+
+    private final SerializableBiPredicate<String, String> matches;
+
+    /**
+     * Creates a data provider caching the queries of the given one.
+     *
+     * @param cache        the cache to use
+     * @param vocabularyId identifies the suggestions of the source in the cache
+     * @param source       the data provider to cache
+     */
+    public CachingDataProvider(SuggestionCache cache, String vocabularyId, DataProvider<String, String> source) {
+        this(cache, vocabularyId, source, ANY_MODE);
+    }
+
+    /**
+     * Creates a data provider caching the queries of the given one.
+     *
+     * @param cache        the cache to use
+     * @param vocabularyId identifies the suggestions of the source in the cache
+     * @param source       the data provider to cache
+     * @param matches      tells whether a token (first argument) can be a
+     *                     suggestion for a filter (second argument), to find
+     *                     the cached queries a new token changes
+     */
+    public CachingDataProvider(SuggestionCache cache, String vocabularyId, DataProvider<String, String> source,
+                               SerializableBiPredicate<String, String> matches) {
+        this.cache = Objects.requireNonNull(cache);
+        this.vocabularyId = Objects.requireNonNull(vocabularyId);
+        this.source = Objects.requireNonNull(source);
+        this.matches = Objects.requireNonNull(matches);
+    }
+
+    /**
+     * Gets the wrapped data provider.
+     *
+     * @return the data provider whose queries are cached
+     */
+    public DataProvider<String, String> getSource() {
+        return source;
+    }
+
+    @Override
+    public void rememberToken(String tokenId) {
+        if (source instanceof TokenSink) {
+            ((TokenSink) source).rememberToken(tokenId);
+        }
+        cache.invalidate(vocabularyId, tokenId, matches);
+    }
+
+    @Override
+    protected Stream<String> fetchFromBackEnd(Query<String, String> query) {
+        String filter = query.getFilter().orElse("");
+        return cache.fetch(vocabularyId, filter, query.getOffset(), query.getLimit(),
+                () -> Collections.unmodifiableList(source.fetch(
+                        new Query<>(query.getOffset(), query.getLimit(), null, null, filter))
+                        .collect(Collectors.toList())))
+                .stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<String, String> query) {
+        String filter = query.getFilter().orElse("");
+        return cache.count(vocabularyId, filter, () -> source.size(new Query<>(filter)));
+    }
+}
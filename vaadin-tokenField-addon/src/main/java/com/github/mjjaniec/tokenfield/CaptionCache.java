@@ -0,0 +1,169 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A thread safe, bounded cache of token captions, meant to be shared by all
+ * the {@link TokenField}s of an application, so that the caption of a token
+ * shown in many sessions is resolved once.
+ * <p>
+ * Entries are keyed by vocabulary id and token id, and evicted least recently
+ * used first when the cache is full. See {@link CachingCaptionProvider} for
+ * how a caption provider is served through the cache.
+ * </p>
+ * <p>
+ * The entries are not serialized: a deserialized cache starts empty.
+ * </p>
+ */
+public class CaptionCache implements Serializable {
+
+    private final long maximumSize;
+
+    private transient Cache<Key, String> cache;
+
+    private static final class Key {
+        final String vocabularyId;
+        final String tokenId;
+
+        Key(String vocabularyId, String tokenId) {
+            this.vocabularyId = vocabularyId;
+            this.tokenId = tokenId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return vocabularyId.equals(other.vocabularyId) && tokenId.equals(other.tokenId);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * vocabularyId.hashCode() + tokenId.hashCode();
+        }
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize the maximum number of cached captions
+     */
+    public CaptionCache(long maximumSize) {
+        this.maximumSize = maximumSize;
+        build();
+    }
+
+    private void build() {
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        build();
+    }
+
+    /*
+     * The captions missing from the cache are resolved by one call of the
+     * source; tokens it gives no caption for are cached with their id as the
+     * caption, so they are not looked up again.
+     */
+    Map<String, String> getCaptions(String vocabularyId, Collection<String> tokenIds, TokenCaptionProvider source) {
+        List<Key> keys = new ArrayList<>(tokenIds.size());
+        for (String tokenId : tokenIds) {
+            keys.add(new Key(vocabularyId, tokenId));
+        }
+        Map<Key, String> present = cache.getAllPresent(keys);
+        Map<String, String> captions = new HashMap<>();
+        List<String> missing = new ArrayList<>(keys.size() - present.size());
+        for (Key key : keys) {
+            String caption = present.get(key);
+            if (caption != null) {
+                captions.put(key.tokenId, caption);
+            } else {
+                missing.add(key.tokenId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, String> resolved = source.getCaptions(missing);
+            for (String tokenId : missing) {
+                String caption = resolved.get(tokenId);
+                if (caption == null) {
+                    caption = tokenId;
+                }
+                cache.put(new Key(vocabularyId, tokenId), caption);
+                captions.put(tokenId, caption);
+            }
+        }
+        return captions;
+    }
+
+    /**
+     * Evicts the cached caption of a token, e.g. after the name of a contact
+     * has changed.
+     *
+     * @param vocabularyId the vocabulary of the token
+     * @param tokenId      the token
+     */
+    public void invalidate(String vocabularyId, String tokenId) {
+        cache.invalidate(new Key(Objects.requireNonNull(vocabularyId), Objects.requireNonNull(tokenId)));
+    }
+
+    /**
+     * Evicts all the cached captions of a vocabulary.
+     *
+     * @param vocabularyId the vocabulary
+     */
+    public void invalidateAll(String vocabularyId) {
+        cache.asMap().keySet().removeIf(key -> key.vocabularyId.equals(vocabularyId));
+    }
+
+    /**
+     * Evicts all the cached captions.
+     */
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets the number of captions taken from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * Gets the number of captions that had to be resolved.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * Gets the approximate number of cached captions.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+        return cache.size();
+    }
+}
@@ -0,0 +1,205 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps the measurements of {@link TokenField}s in memory, as named counters
+ * and distributions, e.g. for tests or for a dashboard to poll. Thread safe,
+ * and cheap enough to share by all the fields of an application.
+ */
+public class InMemoryTokenFieldMetrics implements TokenFieldMetrics {
+
+    /**
+     * Counts the tokens added
+     */
+    public static final String TOKENS_ADDED = "tokens.added";
+    /**
+     * Counts the tokens removed
+     */
+    public static final String TOKENS_REMOVED = "tokens.removed";
+    /**
+     * The number of tokens added and removed per batch
+     */
+    public static final String BATCH_SIZE = "batch.size";
+    /**
+     * Counts the rebuilds of the layout
+     */
+    public static final String REBUILDS = "layout.rebuilds";
+    /**
+     * Counts the components added to and removed from the layout, by rebuilds
+     * or otherwise
+     */
+    public static final String LAYOUT_OPERATIONS = "layout.operations";
+    /**
+     * Counts the calls from the client; the calls of each method are counted
+     * by the name suffixed with "." and the method name too
+     */
+    public static final String RPC_CALLS = "rpc.calls";
+    /**
+     * The duration of the suggestion queries, in nanoseconds
+     */
+    public static final String SUGGESTION_QUERIES = "suggestion.queries";
+    /**
+     * The duration of the caption provider calls, in nanoseconds
+     */
+    public static final String CAPTION_RESOLUTION = "caption.resolution";
+    /**
+     * Counts the tokens whose captions were resolved
+     */
+    public static final String CAPTIONS_RESOLVED = "captions.resolved";
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Distribution> distributions = new ConcurrentHashMap<>();
+
+    /**
+     * The count, total and maximum of recorded values, e.g. durations.
+     */
+    public static final class Distribution {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long value) {
+            count.increment();
+            total.add(value);
+            max.accumulate(value);
+        }
+
+        /**
+         * Gets the number of recorded values.
+         *
+         * @return the count
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+        /**
+         * Gets the sum of the recorded values.
+         *
+         * @return the total
+         */
+        public long getTotal() {
+            return total.sum();
+        }
+
+        /**
+         * Gets the largest recorded value.
+         *
+         * @return the maximum, 0 if nothing was recorded
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * Gets the average of the recorded values.
+         *
+         * @return the mean, 0 if nothing was recorded
+         */
+        public double getMean() {
+            long n = getCount();
+            return n == 0 ? 0 : (double) getTotal() / n;
+        }
+    }
+
+    private void increment(String name, long amount) {
+        counters.computeIfAbsent(name, n -> new LongAdder()).add(amount);
+    }
+
+    private void record(String name, long value) {
+        distributions.computeIfAbsent(name, n -> new Distribution()).record(value);
+    }
+
+    @Override
+    public void tokensChanged(int added, int removed) {
+        increment(TOKENS_ADDED, added);
+        increment(TOKENS_REMOVED, removed);
+        record(BATCH_SIZE, added + removed);
+    }
+
+    @Override
+    public void layoutRebuilt(int componentOperations) {
+        increment(REBUILDS, 1);
+        increment(LAYOUT_OPERATIONS, componentOperations);
+    }
+
+    @Override
+    public void layoutChanged(int componentOperations) {
+        increment(LAYOUT_OPERATIONS, componentOperations);
+    }
+
+    @Override
+    public void rpcCalled(String method) {
+        increment(RPC_CALLS, 1);
+        increment(RPC_CALLS + "." + method, 1);
+    }
+
+    @Override
+    public void suggestionsQueried(long nanos) {
+        record(SUGGESTION_QUERIES, nanos);
+    }
+
+    @Override
+    public void captionsResolved(int count, long nanos) {
+        increment(CAPTIONS_RESOLVED, count);
+        record(CAPTION_RESOLUTION, nanos);
+    }
+
+    /**
+     * Gets the value of a counter.
+     *
+     * @param name the name of the counter, e.g. {@link #TOKENS_ADDED}
+     * @return the count, 0 if nothing was counted
+     */
+    public long getCount(String name) {
+        LongAdder counter = counters.get(name);
+        return counter != null ? counter.sum() : 0;
+    }
+
+    /**
+     * Gets a distribution.
+     *
+     * @param name the name of the distribution, e.g. {@link #BATCH_SIZE}
+     * @return the distribution; empty if nothing was recorded
+     */
+    public Distribution getDistribution(String name) {
+        Distribution distribution = distributions.get(name);
+        return distribution != null ? distribution : new Distribution();
+    }
+
+    /**
+     * Gets the values of all the counters.
+     *
+     * @return the counts by name, sorted by name
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        counters.forEach((name, counter) -> counts.put(name, counter.sum()));
+        return counts;
+    }
+
+    /**
+     * Gets all the distributions.
+     *
+     * @return the distributions by name, sorted by name
+     */
+    public Map<String, Distribution> getDistributions() {
+        return Collections.unmodifiableMap(new TreeMap<>(distributions));
+    }
+
+    /**
+     * Forgets everything measured so far.
+     */
+    public void reset() {
+        counters.clear();
+        distributions.clear();
+    }
+}
@@ -0,0 +1,141 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.AbstractOrderedLayout;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.Layout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Brings the contents of a {@link Layout} to a desired component order with as
+ * few component operations as possible, instead of removing and re-adding
+ * everything. Components that keep their relative order stay attached; the
+ * others are removed, moved or added.
+ */
+final class LayoutUpdater {
+
+    private LayoutUpdater() {
+    }
+
+    /**
+     * Updates the given layout to contain exactly the desired components in
+     * the desired order.
+     * <p>
+     * For {@link CssLayout} and {@link AbstractOrderedLayout} the longest
+     * subsequence of components already in the right relative order is left
+     * untouched. Other layouts have no index based insertion, so they are
+     * rebuilt, but only if their contents actually differ.
+     * </p>
+     *
+     * @param layout  the layout to update
+     * @param desired the components the layout should contain, in order
+     * @return the number of component insert and remove operations performed
+     */
+    static int update(Layout layout, List<? extends Component> desired) {
+        List<Component> current = new ArrayList<>(layout.getComponentCount());
+        layout.forEach(current::add);
+
+        if (layout instanceof CssLayout) {
+            CssLayout css = (CssLayout) layout;
+            return update(current, desired, css::removeComponent, css::addComponent);
+        } else if (layout instanceof AbstractOrderedLayout) {
+            AbstractOrderedLayout ordered = (AbstractOrderedLayout) layout;
+            return update(current, desired, ordered::removeComponent, ordered::addComponent);
+        }
+
+        if (current.equals(desired)) {
+            return 0;
+        }
+        layout.removeAllComponents();
+        for (Component c : desired) {
+            layout.addComponent(c);
+        }
+        return current.size() + desired.size();
+    }
+
+    private interface Insert {
+        void insert(Component c, int index);
+    }
+
+    private interface Remove {
+        void remove(Component c);
+    }
+
+    private static int update(List<Component> current, List<? extends Component> desired,
+                              Remove remove, Insert insert) {
+        Map<Component, Integer> desiredIndex = new IdentityHashMap<>(desired.size());
+        for (int i = 0; i < desired.size(); i++) {
+            desiredIndex.put(desired.get(i), i);
+        }
+
+        int operations = 0;
+        Iterator<Component> it = current.iterator();
+        while (it.hasNext()) {
+            Component c = it.next();
+            if (!desiredIndex.containsKey(c)) {
+                remove.remove(c);
+                it.remove();
+                operations++;
+            }
+        }
+
+        Set<Component> kept = longestOrderedRun(current, desiredIndex);
+        for (Component c : current) {
+            if (!kept.contains(c)) {
+                remove.remove(c);
+                operations++;
+            }
+        }
+
+        // only kept components remain, in desired order; fill in the gaps
+        for (int i = 0; i < desired.size(); i++) {
+            Component c = desired.get(i);
+            if (!kept.contains(c)) {
+                insert.insert(c, i);
+                operations++;
+            }
+        }
+        return operations;
+    }
+
+    /*
+     * Longest increasing subsequence of the desired positions of the current
+     * components (patience sorting, O(n log n)).
+     */
+    private static Set<Component> longestOrderedRun(List<Component> current,
+                                                    Map<Component, Integer> desiredIndex) {
+        int n = current.size();
+        int[] tailIndex = new int[n];
+        int[] tailValue = new int[n];
+        int[] previous = new int[n];
+        int length = 0;
+
+        for (int i = 0; i < n; i++) {
+            int value = desiredIndex.get(current.get(i));
+            int pos = Arrays.binarySearch(tailValue, 0, length, value);
+            if (pos < 0) {
+                pos = -pos - 1;
+            }
+            tailValue[pos] = value;
+            tailIndex[pos] = i;
+            previous[i] = pos > 0 ? tailIndex[pos - 1] : -1;
+            if (pos == length) {
+                length++;
+            }
+        }
+
+        Set<Component> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = length > 0 ? tailIndex[length - 1] : -1; i >= 0; i = previous[i]) {
+            kept.add(current.get(i));
+        }
+        return kept;
+    }
+}
@@ -0,0 +1,465 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+/**
+ * An immutable set of tokens in insertion order, changed by creating new
+ * versions that share most of their structure with the old one.
+ * <p>
+ * Each token gets the next sequence number when added. A hash array mapped
+ * trie maps the tokens to their sequence numbers; a trie indexed by sequence
+ * number, counting the tokens in each subtree, keeps the order. Adding or
+ * removing a token copies only the paths to it in both tries, i.e. O(log n)
+ * nodes of at most 32 slots, and leaves the old version intact; keeping both
+ * versions costs that much more memory, not a copy of the set. Lookups, and
+ * finding a token by index or the index of a token, are O(log n) with a base
+ * of 32; iterating is O(n).
+ * </p>
+ * <p>
+ * The sequence numbers of removed tokens are not reused; once they outnumber
+ * the tokens, the set is rebuilt with consecutive ones, which keeps the cost
+ * amortized O(log n) per change.
+ * </p>
+ */
+final class PersistentTokenSet extends AbstractSet<String> implements Serializable {
+
+    static final PersistentTokenSet EMPTY = new PersistentTokenSet(null, null, 0, 0, 0);
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+
+    /**
+     * Once this many bits are consumed, the hash is exhausted and equal
+     * hashes collide
+     */
+    private static final int MAX_SHIFT = 30;
+
+    /**
+     * Maps the tokens to {@link Entry entries}
+     */
+    private final transient Object index;
+
+    /**
+     * The tokens by sequence number
+     */
+    private final transient OrderNode order;
+
+    /**
+     * The shift of the root of the order trie
+     */
+    private final int orderShift;
+
+    private final int size;
+
+    /**
+     * The sequence number of the next token added
+     */
+    private final int nextSeq;
+
+    /**
+     * A token with its sequence number
+     */
+    private static final class Entry {
+        final String token;
+        final int seq;
+
+        Entry(String token, int seq) {
+            this.token = token;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * The slots of a hash trie node that are in use, by the bits of the hash
+     * at its level; a slot holds an {@link Entry} or a child node
+     */
+    private static final class BitmapNode {
+        final int bitmap;
+        final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * The entries whose tokens have equal hashes
+     */
+    private static final class CollisionNode {
+        final Entry[] entries;
+
+        CollisionNode(Entry[] entries) {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * A node of the order trie: the tokens of consecutive sequence numbers at
+     * the lowest level, child nodes above; empty slots are <code>null</code>
+     * and trailing ones are left out
+     */
+    private static final class OrderNode {
+        final int count;
+        final Object[] slots;
+
+        OrderNode(int count, Object[] slots) {
+            this.count = count;
+            this.slots = slots;
+        }
+    }
+
+    private PersistentTokenSet(Object index, OrderNode order, int orderShift, int size, int nextSeq) {
+        this.index = index;
+        this.order = order;
+        this.orderShift = orderShift;
+        this.size = size;
+        this.nextSeq = nextSeq;
+    }
+
+    /**
+     * Creates a set of the given tokens, in their iteration order.
+     *
+     * @param tokens the tokens; duplicates are dropped
+     * @return the set
+     * @throws NullPointerException if a token is <code>null</code>
+     */
+    static PersistentTokenSet of(Iterable<String> tokens) {
+        PersistentTokenSet set = EMPTY;
+        for (String token : tokens) {
+            set = set.with(token);
+        }
+        return set;
+    }
+
+    /**
+     * Gets the set with the given token added last.
+     *
+     * @param token the token to add
+     * @return the new version, or this set if it contains the token already
+     * @throws NullPointerException if the token is <code>null</code>
+     */
+    PersistentTokenSet with(String token) {
+        Objects.requireNonNull(token, "token");
+        if (contains(token)) {
+            return this;
+        }
+        int seq = nextSeq;
+        OrderNode newOrder = order;
+        int newShift = orderShift;
+        if (newOrder != null && seq >>> newShift >= WIDTH) {
+            // full, grow a level
+            newOrder = new OrderNode(newOrder.count, new Object[]{newOrder});
+            newShift += BITS;
+        }
+        newOrder = append(newOrder, newShift, seq, token);
+        Object newIndex = put(index, new Entry(token, seq), hash(token), 0);
+        return new PersistentTokenSet(newIndex, newOrder, newShift, size + 1, seq + 1);
+    }
+
+    /**
+     * Gets the set without the given token.
+     *
+     * @param token the token to remove
+     * @return the new version, or this set if it does not contain the token
+     */
+    PersistentTokenSet without(String token) {
+        Entry entry = token == null ? null : get(index, token, hash(token), 0);
+        if (entry == null) {
+            return this;
+        }
+        if (size == 1) {
+            return EMPTY;
+        }
+        PersistentTokenSet set = new PersistentTokenSet(remove(index, token, hash(token), 0),
+                clear(order, orderShift, entry.seq), orderShift, size - 1, nextSeq);
+        return nextSeq > 2 * set.size + WIDTH ? of(set) : set;
+    }
+
+    /**
+     * Gets the token at the given index in the order.
+     *
+     * @param i the index
+     * @return the token
+     * @throws IndexOutOfBoundsException if the index is out of range
+     */
+    String get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException(String.valueOf(i));
+        }
+        OrderNode node = order;
+        for (int shift = orderShift; shift > 0; shift -= BITS) {
+            for (Object slot : node.slots) {
+                int count = slot == null ? 0 : ((OrderNode) slot).count;
+                if (i < count) {
+                    node = (OrderNode) slot;
+                    break;
+                }
+                i -= count;
+            }
+        }
+        for (Object slot : node.slots) {
+            if (slot != null && i-- == 0) {
+                return (String) slot;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Gets the index of a token in the order.
+     *
+     * @param token the token
+     * @return the index, or -1 if the set does not contain the token
+     */
+    int indexOf(String token) {
+        Entry entry = token == null ? null : get(index, token, hash(token), 0);
+        if (entry == null) {
+            return -1;
+        }
+        int rank = 0;
+        OrderNode node = order;
+        for (int shift = orderShift; ; shift -= BITS) {
+            int slot = (entry.seq >>> shift) & MASK;
+            for (int i = 0; i < slot; i++) {
+                Object before = node.slots[i];
+                if (before != null) {
+                    rank += shift > 0 ? ((OrderNode) before).count : 1;
+                }
+            }
+            if (shift == 0) {
+                return rank;
+            }
+            node = (OrderNode) node.slots[slot];
+        }
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return o instanceof String && get(index, (String) o, hash((String) o), 0) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+        return new Walk();
+    }
+
+    /**
+     * Walks the order trie depth first, skipping the empty slots.
+     */
+    private class Walk implements Iterator<String> {
+        private final OrderNode[] nodes = new OrderNode[orderShift / BITS + 1];
+        private final int[] positions = new int[nodes.length];
+        private int level;
+        private int remaining = size;
+
+        Walk() {
+            nodes[0] = order;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return remaining > 0;
+        }
+
+        @Override
+        public String next() {
+            if (remaining == 0) {
+                throw new NoSuchElementException();
+            }
+            while (true) {
+                OrderNode node = nodes[level];
+                if (positions[level] == node.slots.length) {
+                    // done with this node, go on in its parent
+                    level--;
+                    continue;
+                }
+                Object slot = node.slots[positions[level]++];
+                if (slot == null) {
+                    continue;
+                }
+                if (level == nodes.length - 1) {
+                    remaining--;
+                    return (String) slot;
+                }
+                nodes[++level] = (OrderNode) slot;
+                positions[level] = 0;
+            }
+        }
+    }
+
+    private static OrderNode append(OrderNode node, int shift, int seq, String token) {
+        int slot = (seq >>> shift) & MASK;
+        Object[] slots = node == null ? new Object[slot + 1]
+                : Arrays.copyOf(node.slots, Math.max(node.slots.length, slot + 1));
+        slots[slot] = shift == 0 ? token : append((OrderNode) slots[slot], shift - BITS, seq, token);
+        return new OrderNode(node == null ? 1 : node.count + 1, slots);
+    }
+
+    /*
+     * Empties the slot of the sequence number; nodes left empty are dropped.
+     */
+    private static OrderNode clear(OrderNode node, int shift, int seq) {
+        if (node.count == 1) {
+            return null;
+        }
+        int slot = (seq >>> shift) & MASK;
+        Object[] slots = node.slots.clone();
+        slots[slot] = shift == 0 ? null : clear((OrderNode) slots[slot], shift - BITS, seq);
+        return new OrderNode(node.count - 1, slots);
+    }
+
+    private static int hash(String token) {
+        int h = token.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static Entry get(Object node, String token, int hash, int shift) {
+        while (node instanceof BitmapNode) {
+            BitmapNode bitmapNode = (BitmapNode) node;
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmapNode.bitmap & bit) == 0) {
+                return null;
+            }
+            node = bitmapNode.slots[bitmapNode.index(bit)];
+            shift += BITS;
+        }
+        if (node instanceof Entry) {
+            Entry entry = (Entry) node;
+            return entry.token.equals(token) ? entry : null;
+        }
+        if (node instanceof CollisionNode) {
+            for (Entry entry : ((CollisionNode) node).entries) {
+                if (entry.token.equals(token)) {
+                    return entry;
+                }
+            }
+        }
+        return null;
+    }
+
+    /*
+     * Adds the entry of a token not in the trie yet, copying the path to it.
+     */
+    private static Object put(Object node, Entry entry, int hash, int shift) {
+        if (node == null) {
+            return entry;
+        }
+        if (node instanceof Entry) {
+            Entry existing = (Entry) node;
+            return merge(existing, hash(existing.token), entry, hash, shift);
+        }
+        if (node instanceof CollisionNode) {
+            Entry[] entries = ((CollisionNode) node).entries;
+            Entry[] copy = Arrays.copyOf(entries, entries.length + 1);
+            copy[entries.length] = entry;
+            return new CollisionNode(copy);
+        }
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = bitmapNode.index(bit);
+        if ((bitmapNode.bitmap & bit) != 0) {
+            Object[] slots = bitmapNode.slots.clone();
+            slots[index] = put(slots[index], entry, hash, shift + BITS);
+            return new BitmapNode(bitmapNode.bitmap, slots);
+        }
+        Object[] slots = new Object[bitmapNode.slots.length + 1];
+        System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+        slots[index] = entry;
+        System.arraycopy(bitmapNode.slots, index, slots, index + 1, bitmapNode.slots.length - index);
+        return new BitmapNode(bitmapNode.bitmap | bit, slots);
+    }
+
+    private static Object merge(Entry a, int hashA, Entry b, int hashB, int shift) {
+        if (shift > MAX_SHIFT) {
+            return new CollisionNode(new Entry[]{a, b});
+        }
+        int indexA = (hashA >>> shift) & MASK;
+        int indexB = (hashB >>> shift) & MASK;
+        if (indexA == indexB) {
+            return new BitmapNode(1 << indexA, new Object[]{merge(a, hashA, b, hashB, shift + BITS)});
+        }
+        return new BitmapNode((1 << indexA) | (1 << indexB), indexA < indexB ? new Object[]{a, b} : new Object[]{b, a});
+    }
+
+    /*
+     * Removes the entry of the token, which must be present, copying the path
+     * to it; a node left with a single entry is replaced by the entry.
+     */
+    private static Object remove(Object node, String token, int hash, int shift) {
+        if (node instanceof Entry) {
+            return null;
+        }
+        if (node instanceof CollisionNode) {
+            Entry[] entries = ((CollisionNode) node).entries;
+            if (entries.length == 2) {
+                return entries[0].token.equals(token) ? entries[1] : entries[0];
+            }
+            Entry[] copy = new Entry[entries.length - 1];
+            int j = 0;
+            for (Entry entry : entries) {
+                if (!entry.token.equals(token)) {
+                    copy[j++] = entry;
+                }
+            }
+            return new CollisionNode(copy);
+        }
+        BitmapNode bitmapNode = (BitmapNode) node;
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int index = bitmapNode.index(bit);
+        Object child = remove(bitmapNode.slots[index], token, hash, shift + BITS);
+        if (child != null) {
+            if (bitmapNode.slots.length == 1 && child instanceof Entry) {
+                return child;
+            }
+            Object[] slots = bitmapNode.slots.clone();
+            slots[index] = child;
+            return new BitmapNode(bitmapNode.bitmap, slots);
+        }
+        if (bitmapNode.slots.length == 1) {
+            return null;
+        }
+        if (bitmapNode.slots.length == 2 && bitmapNode.slots[1 - index] instanceof Entry) {
+            return bitmapNode.slots[1 - index];
+        }
+        Object[] slots = new Object[bitmapNode.slots.length - 1];
+        System.arraycopy(bitmapNode.slots, 0, slots, 0, index);
+        System.arraycopy(bitmapNode.slots, index + 1, slots, index, slots.length - index);
+        return new BitmapNode(bitmapNode.bitmap & ~bit, slots);
+    }
+
+    /*
+     * Only the tokens are written, in order; the tries are rebuilt when read.
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        return new SerializedForm(toArray(new String[0]));
+    }
+
+    private static final class SerializedForm implements Serializable {
+        private final String[] tokens;
+
+        SerializedForm(String[] tokens) {
+            this.tokens = tokens;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            return of(Arrays.asList(tokens));
+        }
+    }
+}
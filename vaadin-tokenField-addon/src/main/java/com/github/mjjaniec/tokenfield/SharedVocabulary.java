@@ -0,0 +1,263 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A token vocabulary meant to be shared by the {@link TokenField}s of all the
+ * sessions of an application, so that a token remembered in one session is
+ * suggested in all of them, and the vocabulary is kept in memory once.
+ * <p>
+ * The tokens are spread over a fixed number of segments by hash. Each segment
+ * is an immutable pair of sorted arrays (as in {@link TokenIndexDataProvider})
+ * that is replaced by compare-and-set on a write, so reads take no locks and
+ * writes to different segments don't contend. Suggestions are matched by
+ * case-insensitive prefix; a page is merged from the segments in
+ * O(s log s + (offset + limit) log s) for s segments.
+ * </p>
+ * <p>
+ * A field binds to the vocabulary through its own
+ * {@link VocabularyDataProvider}, see
+ * {@link TokenField#setVocabulary(SharedVocabulary)}.
+ * </p>
+ * <p>
+ * A vocabulary obtained by {@link #named(String)} is serialized as just its
+ * name, so serialized sessions don't carry copies of it; on deserialization
+ * the name resolves to the vocabulary of that name in the receiving JVM,
+ * which the application fills e.g. on startup. Other vocabularies are
+ * serialized with all their tokens.
+ * </p>
+ */
+public class SharedVocabulary implements Serializable {
+
+    private static final int SEGMENTS = 16;
+
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private static final ConcurrentMap<String, SharedVocabulary> NAMED = new ConcurrentHashMap<>();
+
+    /**
+     * The name of a vocabulary obtained by {@link #named(String)}, otherwise
+     * <code>null</code>
+     */
+    private final String name;
+
+    private final AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(SEGMENTS);
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * An immutable part of the vocabulary
+     */
+    private static final class Segment implements Serializable {
+        final SortedTokenArray main;
+        final SortedTokenArray buffer;
+
+        Segment(SortedTokenArray main, SortedTokenArray buffer) {
+            this.main = main;
+            this.buffer = buffer;
+        }
+
+        boolean contains(String token) {
+            return main.contains(token) || buffer.contains(token);
+        }
+
+        Segment add(String token) {
+            SortedTokenArray newBuffer = buffer.insert(token);
+            if (newBuffer.size() > Math.max(MIN_BUFFER_SIZE, (int) Math.sqrt(main.size()))) {
+                return new Segment(main.merge(newBuffer), SortedTokenArray.EMPTY);
+            }
+            return new Segment(main, newBuffer);
+        }
+    }
+
+    /**
+     * Creates an empty vocabulary.
+     */
+    public SharedVocabulary() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * Creates a vocabulary of the given tokens; duplicates are dropped.
+     *
+     * @param tokens the initial tokens
+     */
+    public SharedVocabulary(Collection<String> tokens) {
+        this(null, tokens);
+    }
+
+    private SharedVocabulary(String name, Collection<String> tokens) {
+        this.name = name;
+        List<List<String>> parts = new ArrayList<>(SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (String token : tokens) {
+            parts.get(segmentOf(token)).add(token);
+        }
+        int total = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            SortedTokenArray main = SortedTokenArray.of(parts.get(i));
+            segments.set(i, new Segment(main, SortedTokenArray.EMPTY));
+            total += main.size();
+        }
+        size.set(total);
+    }
+
+    /**
+     * Gets the vocabulary of the given name, shared by the whole JVM (more
+     * precisely, class loader); an empty one is created on first use.
+     *
+     * @param name the name of the vocabulary
+     * @return the vocabulary
+     */
+    public static SharedVocabulary named(String name) {
+        return NAMED.computeIfAbsent(name, n -> new SharedVocabulary(n, Collections.emptyList()));
+    }
+
+    /**
+     * Gets the name of the vocabulary.
+     *
+     * @return the name, or <code>null</code> if the vocabulary was not
+     * obtained by {@link #named(String)}
+     */
+    public String getName() {
+        return name;
+    }
+
+    private Object writeReplace() {
+        return name != null ? new Reference(name) : this;
+    }
+
+    /**
+     * The serialized form of a named vocabulary
+     */
+    private static final class Reference implements Serializable {
+        private final String name;
+
+        Reference(String name) {
+            this.name = name;
+        }
+
+        private Object readResolve() {
+            return named(name);
+        }
+    }
+
+    private static int segmentOf(String token) {
+        int h = token.hashCode();
+        return (h ^ (h >>> 16)) & (SEGMENTS - 1);
+    }
+
+    /**
+     * Adds a token, if not already present; safe to call from any thread.
+     *
+     * @param tokenId the token to add
+     * @return true if the token was added, false if it was already present
+     */
+    public boolean add(String tokenId) {
+        int i = segmentOf(tokenId);
+        while (true) {
+            Segment segment = segments.get(i);
+            if (segment.contains(tokenId)) {
+                return false;
+            }
+            if (segments.compareAndSet(i, segment, segment.add(tokenId))) {
+                size.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Checks whether the vocabulary holds the given token.
+     *
+     * @param tokenId the token
+     * @return true if the token is present
+     */
+    public boolean contains(String tokenId) {
+        return segments.get(segmentOf(tokenId)).contains(tokenId);
+    }
+
+    /**
+     * Gets the number of tokens.
+     *
+     * @return the number of tokens
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Counts the tokens starting with the given prefix, ignoring case.
+     *
+     * @param prefix the prefix
+     * @return the number of matching tokens
+     */
+    public int count(String prefix) {
+        String key = SortedTokenArray.key(prefix);
+        int count = 0;
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment segment = segments.get(i);
+            count += segment.main.prefixEnd(key) - segment.main.prefixStart(key)
+                    + segment.buffer.prefixEnd(key) - segment.buffer.prefixStart(key);
+        }
+        return count;
+    }
+
+    /**
+     * Fetches a page of the tokens starting with the given prefix, ignoring
+     * case, in case-insensitive order.
+     *
+     * @param prefix the prefix
+     * @param offset the index of the first token to fetch
+     * @param limit  the maximum number of tokens to fetch
+     * @return the page of tokens
+     */
+    public List<String> fetch(String prefix, int offset, int limit) {
+        String key = SortedTokenArray.key(prefix);
+
+        // a run is {array index, position, end} over the matching range
+        List<SortedTokenArray> arrays = new ArrayList<>(2 * SEGMENTS);
+        PriorityQueue<int[]> runs = new PriorityQueue<>(2 * SEGMENTS, (r1, r2) -> {
+            SortedTokenArray a1 = arrays.get(r1[0]);
+            SortedTokenArray a2 = arrays.get(r2[0]);
+            return SortedTokenArray.compare(a1.keyAt(r1[1]), a1.get(r1[1]), a2.keyAt(r2[1]), a2.get(r2[1]));
+        });
+        for (int i = 0; i < SEGMENTS; i++) {
+            Segment segment = segments.get(i);
+            for (SortedTokenArray array : new SortedTokenArray[]{segment.main, segment.buffer}) {
+                int from = array.prefixStart(key);
+                int to = array.prefixEnd(key);
+                if (from < to) {
+                    arrays.add(array);
+                    runs.add(new int[]{arrays.size() - 1, from, to});
+                }
+            }
+        }
+
+        List<String> result = new ArrayList<>(Math.min(limit, 64));
+        int skipped = 0;
+        while (result.size() < limit && !runs.isEmpty()) {
+            int[] run = runs.poll();
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                result.add(arrays.get(run[0]).get(run[1]));
+            }
+            if (++run[1] < run[2]) {
+                runs.add(run);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,230 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * An immutable array of tokens sorted case-insensitively (ties broken by the
+ * token itself), answering prefix range queries by binary search.
+ */
+final class SortedTokenArray implements Serializable {
+
+    static final SortedTokenArray EMPTY = new SortedTokenArray(new String[0], new String[0]);
+
+    /**
+     * The lower case search keys, sorted
+     */
+    private final String[] keys;
+
+    /**
+     * The tokens, in the same order as their keys
+     */
+    private final String[] tokens;
+
+    private SortedTokenArray(String[] keys, String[] tokens) {
+        this.keys = keys;
+        this.tokens = tokens;
+    }
+
+    static String key(String token) {
+        return token.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Creates a sorted array of the given tokens, without duplicates.
+     *
+     * @param source the tokens
+     * @return the sorted array
+     */
+    static SortedTokenArray of(Collection<String> source) {
+        String[][] entries = new String[source.size()][];
+        int n = 0;
+        for (String token : source) {
+            entries[n++] = new String[]{key(token), token};
+        }
+        Arrays.sort(entries, Comparator.<String[], String>comparing(e -> e[0]).thenComparing(e -> e[1]));
+
+        String[] keys = new String[n];
+        String[] tokens = new String[n];
+        int size = 0;
+        for (String[] entry : entries) {
+            if (size == 0 || !tokens[size - 1].equals(entry[1])) {
+                keys[size] = entry[0];
+                tokens[size] = entry[1];
+                size++;
+            }
+        }
+        return new SortedTokenArray(Arrays.copyOf(keys, size), Arrays.copyOf(tokens, size));
+    }
+
+    int size() {
+        return tokens.length;
+    }
+
+    String get(int index) {
+        return tokens[index];
+    }
+
+    String keyAt(int index) {
+        return keys[index];
+    }
+
+    static int compare(String key1, String token1, String key2, String token2) {
+        int c = key1.compareTo(key2);
+        return c != 0 ? c : token1.compareTo(token2);
+    }
+
+    /**
+     * Gets the index of the first entry not less than the given one.
+     */
+    int lowerBound(String key, String token) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(keys[mid], tokens[mid], key, token) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    boolean contains(String token) {
+        String key = key(token);
+        int index = lowerBound(key, token);
+        return index < tokens.length && tokens[index].equals(token);
+    }
+
+    /**
+     * Gets the index of the first token whose key starts with the given
+     * (lower case) prefix.
+     */
+    int prefixStart(String prefix) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(prefix) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Gets the index after the last token whose key starts with the given
+     * (lower case) prefix.
+     */
+    int prefixEnd(String prefix) {
+        int lo = prefixStart(prefix);
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].startsWith(prefix)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns a copy with the given token inserted at its place; O(n), meant
+     * for small arrays.
+     */
+    SortedTokenArray insert(String token) {
+        String key = key(token);
+        int index = lowerBound(key, token);
+        String[] newKeys = new String[keys.length + 1];
+        String[] newTokens = new String[tokens.length + 1];
+        System.arraycopy(keys, 0, newKeys, 0, index);
+        System.arraycopy(tokens, 0, newTokens, 0, index);
+        newKeys[index] = key;
+        newTokens[index] = token;
+        System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+        System.arraycopy(tokens, index, newTokens, index + 1, tokens.length - index);
+        return new SortedTokenArray(newKeys, newTokens);
+    }
+
+    /**
+     * Merges two arrays with no tokens in common; O(n + m).
+     */
+    SortedTokenArray merge(SortedTokenArray other) {
+        int n = keys.length + other.keys.length;
+        String[] newKeys = new String[n];
+        String[] newTokens = new String[n];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < n; k++) {
+            if (j == other.keys.length || (i < keys.length
+                    && compare(keys[i], tokens[i], other.keys[j], other.tokens[j]) < 0)) {
+                newKeys[k] = keys[i];
+                newTokens[k] = tokens[i++];
+            } else {
+                newKeys[k] = other.keys[j];
+                newTokens[k] = other.tokens[j++];
+            }
+        }
+        return new SortedTokenArray(newKeys, newTokens);
+    }
+
+    /**
+     * Fetches a page of the tokens starting with the given prefix from the
+     * union of two arrays with no tokens in common, in sorted order, in
+     * O(log n + limit).
+     *
+     * @param a      the first array
+     * @param b      the second array
+     * @param prefix the lower case prefix
+     * @param offset the index of the first token to fetch
+     * @param limit  the maximum number of tokens to fetch
+     * @return the page of tokens
+     */
+    static List<String> fetch(SortedTokenArray a, SortedTokenArray b, String prefix, int offset, int limit) {
+        int aFrom = a.prefixStart(prefix);
+        int aTo = a.prefixEnd(prefix);
+        int bFrom = b.prefixStart(prefix);
+        int bTo = b.prefixEnd(prefix);
+        int aLen = aTo - aFrom;
+        int bLen = bTo - bFrom;
+
+        int total = aLen + bLen;
+        int k = Math.min(offset, total);
+        // find how many of the first k merged entries come from b
+        int lo = Math.max(0, k - aLen);
+        int hi = Math.min(k, bLen);
+        while (lo < hi) {
+            int fromB = (lo + hi) >>> 1;
+            int fromA = k - fromB;
+            // is b[fromB] before a[fromA - 1]? then more must come from b
+            if (compare(b.keys[bFrom + fromB], b.tokens[bFrom + fromB],
+                    a.keys[aFrom + fromA - 1], a.tokens[aFrom + fromA - 1]) < 0) {
+                lo = fromB + 1;
+            } else {
+                hi = fromB;
+            }
+        }
+        int i = aFrom + k - lo;
+        int j = bFrom + lo;
+
+        List<String> result = new ArrayList<>(Math.max(0, Math.min(limit, total - k)));
+        while (result.size() < limit && (i < aTo || j < bTo)) {
+            if (j == bTo || (i < aTo && compare(a.keys[i], a.tokens[i], b.keys[j], b.tokens[j]) < 0)) {
+                result.add(a.tokens[i++]);
+            } else {
+                result.add(b.tokens[j++]);
+            }
+        }
+        return result;
+    }
+}
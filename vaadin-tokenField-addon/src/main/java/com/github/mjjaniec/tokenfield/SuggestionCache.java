@@ -0,0 +1,256 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.vaadin.server.SerializableBiPredicate;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A thread safe cache of suggestion queries, meant to be shared by all the
+ * {@link TokenField}s of an application, so that the same filter typed in
+ * many sessions queries the data source once.
+ * <p>
+ * Entries are keyed by vocabulary id, filter, offset and limit, and evicted
+ * least recently used first when the cache is full, or once they are older
+ * than the configured time to live. The keys are also indexed by vocabulary,
+ * so a new token only checks the queries of its own vocabulary. A query
+ * running while a token is added to its vocabulary is not cached, as its
+ * result may miss the token. See {@link CachingDataProvider} for how a data
+ * provider is served through the cache.
+ * </p>
+ * <p>
+ * The entries are not serialized: a deserialized cache starts empty.
+ * </p>
+ */
+public class SuggestionCache implements Serializable {
+
+    /**
+     * The limit of the key for a count query
+     */
+    private static final int COUNT = -1;
+
+    private final long maximumSize;
+
+    private final long expireAfterWriteNanos;
+
+    private transient Ticker ticker;
+
+    private transient Cache<Key, Object> cache;
+
+    /**
+     * The keys of the cached queries, by vocabulary id
+     */
+    private transient Map<String, Set<Key>> keysByVocabulary;
+
+    /**
+     * Counts the invalidations of each vocabulary, by vocabulary id
+     */
+    private transient Map<String, AtomicLong> stamps;
+
+    private static final class Key {
+        final String vocabularyId;
+        final String filter;
+        final int offset;
+        final int limit;
+
+        Key(String vocabularyId, String filter, int offset, int limit) {
+            this.vocabularyId = vocabularyId;
+            this.filter = filter;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return offset == other.offset && limit == other.limit
+                    && vocabularyId.equals(other.vocabularyId) && filter.equals(other.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(vocabularyId, filter, offset, limit);
+        }
+    }
+
+    /**
+     * Creates a cache.
+     *
+     * @param maximumSize      the maximum number of cached queries
+     * @param expireAfterWrite how long a query result stays cached
+     * @param unit             the unit of <code>expireAfterWrite</code>
+     */
+    public SuggestionCache(long maximumSize, long expireAfterWrite, TimeUnit unit) {
+        this(maximumSize, expireAfterWrite, unit, Ticker.systemTicker());
+    }
+
+    SuggestionCache(long maximumSize, long expireAfterWrite, TimeUnit unit, Ticker ticker) {
+        this.maximumSize = maximumSize;
+        this.expireAfterWriteNanos = unit.toNanos(expireAfterWrite);
+        this.ticker = ticker;
+        build();
+    }
+
+    private void build() {
+        keysByVocabulary = new ConcurrentHashMap<>();
+        stamps = new ConcurrentHashMap<>();
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWriteNanos, TimeUnit.NANOSECONDS)
+                .ticker(ticker)
+                .recordStats()
+                .removalListener(this::removed)
+                .build();
+    }
+
+    private void removed(RemovalNotification<Key, Object> notification) {
+        Key key = notification.getKey();
+        Set<Key> keys = key == null ? null : keysByVocabulary.get(key.vocabularyId);
+        if (keys != null) {
+            keys.remove(key);
+            // the listener may run after the key was cached again
+            if (cache.asMap().containsKey(key)) {
+                keys.add(key);
+            }
+        }
+    }
+
+    private AtomicLong stamp(String vocabularyId) {
+        return stamps.computeIfAbsent(vocabularyId, id -> new AtomicLong());
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        ticker = Ticker.systemTicker();
+        build();
+    }
+
+    @SuppressWarnings("unchecked")
+    List<String> fetch(String vocabularyId, String filter, int offset, int limit, Callable<List<String>> query) {
+        return (List<String>) get(new Key(vocabularyId, filter, offset, limit), query::call);
+    }
+
+    int count(String vocabularyId, String filter, Callable<Integer> query) {
+        return (Integer) get(new Key(vocabularyId, filter, 0, COUNT), query::call);
+    }
+
+    /*
+     * Not Cache.get(key, loader): invalidating a key that is being loaded
+     * does not stop the load from caching its possibly stale result.
+     */
+    private Object get(Key key, Callable<Object> query) {
+        Object cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        AtomicLong stamp = stamp(key.vocabularyId);
+        long before = stamp.get();
+        Object result;
+        try {
+            result = query.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        if (stamp.get() == before) {
+            cache.put(key, result);
+            keysByVocabulary.computeIfAbsent(key.vocabularyId, id -> ConcurrentHashMap.newKeySet()).add(key);
+            if (stamp.get() != before) {
+                // invalidated meanwhile, maybe before the key was indexed
+                cache.invalidate(key);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Evicts the cached queries of a vocabulary whose results a new token may
+     * change, i.e. those whose filter the token matches; the other queries
+     * stay cached. Only the queries of the vocabulary are checked, each
+     * filter once.
+     *
+     * @param vocabularyId the vocabulary the token was added to
+     * @param tokenId      the new token
+     * @param matches      tells whether a token (first argument) matches a
+     *                     filter (second argument)
+     */
+    public void invalidate(String vocabularyId, String tokenId, SerializableBiPredicate<String, String> matches) {
+        stamp(vocabularyId).incrementAndGet();
+        Set<Key> keys = keysByVocabulary.get(vocabularyId);
+        if (keys == null) {
+            return;
+        }
+        Map<String, Boolean> matched = new HashMap<>();
+        for (Key key : keys) {
+            if (matched.computeIfAbsent(key.filter, filter -> filter.isEmpty() || matches.test(tokenId, filter))) {
+                cache.invalidate(key);
+            }
+        }
+    }
+
+    /**
+     * Evicts all the cached queries of a vocabulary.
+     *
+     * @param vocabularyId the vocabulary
+     */
+    public void invalidateAll(String vocabularyId) {
+        stamp(vocabularyId).incrementAndGet();
+        Set<Key> keys = keysByVocabulary.get(vocabularyId);
+        if (keys != null) {
+            cache.invalidateAll(keys);
+        }
+    }
+
+    /**
+     * Evicts all the cached queries.
+     */
+    public void invalidateAll() {
+        stamps.values().forEach(AtomicLong::incrementAndGet);
+        cache.invalidateAll();
+    }
+
+    /**
+     * Gets the number of queries answered from the cache.
+     *
+     * @return the hit count
+     */
+    public long getHitCount() {
+        return cache.stats().hitCount();
+    }
+
+    /**
+     * Gets the number of queries that went to the data source.
+     *
+     * @return the miss count
+     */
+    public long getMissCount() {
+        return cache.stats().missCount();
+    }
+
+    /**
+     * Gets the approximate number of cached queries.
+     *
+     * @return the number of entries
+     */
+    public long size() {
+        return cache.size();
+    }
+}
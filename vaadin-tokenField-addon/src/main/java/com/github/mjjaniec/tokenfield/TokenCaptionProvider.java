@@ -0,0 +1,48 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.server.SerializableFunction;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Resolves the captions of tokens, e.g. display names of contacts looked up
+ * by email address. A {@link TokenField} asks for the captions of all the
+ * tokens it renders in a batch at once, so an implementation can resolve them
+ * with a single backend query; see
+ * {@link TokenField#setTokenCaptionProvider(TokenCaptionProvider)}.
+ *
+ * @see CachingCaptionProvider
+ */
+@FunctionalInterface
+public interface TokenCaptionProvider extends Serializable {
+
+    /**
+     * Resolves the captions of the given tokens.
+     *
+     * @param tokenIds the tokens, without duplicates
+     * @return the captions by token id; tokens missing from the map are shown
+     * by their id
+     */
+    Map<String, String> getCaptions(Collection<String> tokenIds);
+
+    /**
+     * Creates a caption provider resolving one token at a time.
+     *
+     * @param captionGenerator gives the caption of a token
+     * @return the caption provider
+     */
+    static TokenCaptionProvider of(SerializableFunction<String, String> captionGenerator) {
+        Objects.requireNonNull(captionGenerator);
+        return tokenIds -> {
+            Map<String, String> captions = new HashMap<>();
+            for (String tokenId : tokenIds) {
+                captions.put(tokenId, captionGenerator.apply(tokenId));
+            }
+            return captions;
+        };
+    }
+}
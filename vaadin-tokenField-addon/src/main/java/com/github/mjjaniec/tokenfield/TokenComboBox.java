@@ -1,23 +1,96 @@
 package com.github.mjjaniec.tokenfield;
 
+import com.github.mjjaniec.tokenfield.client.TokenComboBoxState;
+import com.github.mjjaniec.tokenfield.client.TokenFieldClientRpc;
 import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
 
-import com.vaadin.server.PaintException;
-import com.vaadin.server.PaintTarget;
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.DataProviderWrapper;
+import com.vaadin.data.provider.Query;
+import com.vaadin.server.SerializableFunction;
 import com.vaadin.ui.ComboBox;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
 public abstract class TokenComboBox<M> extends ComboBox<M> {
 
     protected TokenField.InsertPosition insertPosition;
 
+    private transient TokenFieldMetrics metrics;
+
+    /**
+     * The captions of the tokens this input draws, or <code>null</code> if it
+     * draws none; put into the state only when the component is rendered for
+     * the first time
+     */
+    private List<String> captions;
+
+    /**
+     * Changes to {@link #captions} not sent to the client yet, in order
+     */
+    private final List<CaptionChange> captionChanges = new ArrayList<>();
+
+    /**
+     * Whether all the captions are sent to the client, instead of the
+     * changes, in the next response
+     */
+    private boolean captionsReplaced;
+
     private TokenFieldServerRpc rpc = new TokenFieldServerRpc() {
         public void deleteToken() {
-            onDelete();
+            getMetrics().rpcCalled("deleteToken");
+            delete(1);
+        }
+
+        public void deleteTokens(int count) {
+            getMetrics().rpcCalled("deleteTokens");
+            delete(count);
+        }
+
+        private void delete(int count) {
+            getState().deletedTokens += count;
+            if (count > 0) {
+                onDelete(count);
+            }
+        }
+
+        public void addTokens(List<String> keys, List<String> captions) {
+            getMetrics().rpcCalled("addTokens");
+            int count = Math.min(keys.size(), captions.size());
+            getState().addedTokens += count;
+            List<M> items = new ArrayList<>(count);
+            List<String> entered = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String key = keys.get(i);
+                // a stale key resolves to null and is skipped
+                items.add(key.isEmpty() ? null : getDataCommunicator().getKeyMapper().get(key));
+                entered.add(key.isEmpty() ? captions.get(i) : null);
+            }
+            onTokensInput(items, entered);
+        }
+
+        public void clickToken(int index) {
+            getMetrics().rpcCalled("clickToken");
+            if (captions != null && index >= 0 && index < captions.size()) {
+                onTokenClick(index);
+            }
+        }
+
+        public void showMoreTokens() {
+            getMetrics().rpcCalled("showMoreTokens");
+            if (getState(false).hiddenTokens > 0) {
+                onShowMore();
+            }
         }
     };
 
     public TokenComboBox(TokenField.InsertPosition insertPosition) {
         this.insertPosition = insertPosition;
+        getState().after = insertPosition == TokenField.InsertPosition.AFTER;
         registerRpc(rpc);
     }
 
@@ -30,11 +103,304 @@ public abstract class TokenComboBox<M> extends ComboBox<M> {
 //        }
 //    }
 
+    /**
+     * Refreshes the suggestions after a new token was remembered, if the
+     * current filter may match it. Only this input is refreshed, not every
+     * one using the data provider; but it is a reset of its suggestions: the
+     * next response sends the size and the rows the client shows again, and
+     * the client drops the others. Vaadin 8.4 offers no finer update, as the
+     * row insert call of the data communicator is not public and a combo box
+     * can't be given a data communicator of its own.
+     *
+     * @param tokenId the new token
+     */
+    void refreshSuggestions(String tokenId) {
+        String filter = getState(false).currentFilterText;
+        if (filter == null || filter.isEmpty() || TokenField.mayMatch(tokenId, filter)) {
+            getDataCommunicator().reset();
+        }
+    }
+
+    /*
+     * Every data provider is wrapped, so its queries can be timed when
+     * metrics are set later.
+     */
+    @Override
+    public <C> void setDataProvider(DataProvider<M, C> dataProvider, SerializableFunction<String, C> filterConverter) {
+        super.setDataProvider(new MeteredDataProvider<>(dataProvider), filterConverter);
+    }
+
+    /**
+     * Times the queries of the wrapped data provider, if metrics are set.
+     */
+    private class MeteredDataProvider<C> extends DataProviderWrapper<M, C, C> {
+
+        MeteredDataProvider(DataProvider<M, C> dataProvider) {
+            super(dataProvider);
+        }
+
+        @Override
+        protected C getFilter(Query<M, C> query) {
+            return query.getFilter().orElse(null);
+        }
+
+        @Override
+        public int size(Query<M, C> query) {
+            TokenFieldMetrics metrics = getMetrics();
+            if (metrics == TokenFieldMetrics.NONE) {
+                return super.size(query);
+            }
+            long start = System.nanoTime();
+            try {
+                return super.size(query);
+            } finally {
+                metrics.suggestionsQueried(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public Stream<M> fetch(Query<M, C> query) {
+            TokenFieldMetrics metrics = getMetrics();
+            if (metrics == TokenFieldMetrics.NONE) {
+                return super.fetch(query);
+            }
+            long start = System.nanoTime();
+            try {
+                // the stream may be lazy, the query is done when collected
+                return super.fetch(query).collect(Collectors.toList()).stream();
+            } finally {
+                metrics.suggestionsQueried(System.nanoTime() - start);
+            }
+        }
+    }
+
+    /**
+     * Sets the metrics receiving the calls from the client and the suggestion
+     * queries of this input.
+     *
+     * @param metrics the metrics, or <code>null</code> for none
+     */
+    void setMetrics(TokenFieldMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    TokenFieldMetrics getMetrics() {
+        // not serialized
+        return metrics != null ? metrics : TokenFieldMetrics.NONE;
+    }
+
     public void setTokenInsertPosition(TokenField.InsertPosition insertPosition) {
         this.insertPosition = insertPosition;
-        requestRepaint();
+        getState().after = insertPosition == TokenField.InsertPosition.AFTER;
+    }
+
+    /**
+     * Sets the characters separating tokens in text pasted or typed into this
+     * input; the text is split into tokens in the browser.
+     *
+     * @param separators the separator characters, or <code>null</code> to not
+     *                   split
+     */
+    public void setTokenSeparators(String separators) {
+        getState().separators = separators;
+    }
+
+    public String getTokenSeparators() {
+        return getState(false).separators;
+    }
+
+    /**
+     * Sets the captions of the tokens this input draws itself; see
+     * {@link TokenField.RenderMode#COMPACT}.
+     *
+     * @param captions the token captions in order, or <code>null</code> to
+     *                 draw no tokens
+     */
+    public void setTokenCaptions(List<String> captions) {
+        if ((this.captions == null) != (captions == null)) {
+            // starts or stops drawing tokens
+            getState().tokens = captions == null ? null : new ArrayList<>(captions);
+        }
+        this.captions = captions == null ? null : new ArrayList<>(captions);
+        captionChanges.clear();
+        captionsReplaced = captions != null;
+        if (captionsReplaced) {
+            markAsDirty();
+        }
+    }
+
+    /**
+     * Gets the captions of the tokens this input draws itself.
+     *
+     * @return the token captions, or <code>null</code> if no tokens are drawn
+     */
+    public List<String> getTokenCaptions() {
+        return captions;
+    }
+
+    /**
+     * Sets the number of tokens not drawn by this input; when positive, a
+     * "+N more" expander is drawn after the tokens.
+     *
+     * @param hiddenTokens the number of hidden tokens
+     */
+    public void setHiddenTokenCount(int hiddenTokens) {
+        if (getState(false).hiddenTokens != hiddenTokens) {
+            getState().hiddenTokens = hiddenTokens;
+        }
+    }
+
+    /*
+     * Each change is queued for the client, which draws the tokens again but
+     * gets only the added captions or the removed indexes; changes next to
+     * each other are merged.
+     */
+    void addTokenCaption(String caption) {
+        int index = captions.size();
+        captions.add(caption);
+        if (captionsReplaced) {
+            return;
+        }
+        CaptionChange last = lastCaptionChange();
+        if (last != null && last.removed == 0 && index == last.index + last.inserted.size()) {
+            last.inserted.add(caption);
+        } else {
+            List<String> inserted = new ArrayList<>();
+            inserted.add(caption);
+            queueCaptionChange(new CaptionChange(index, inserted, 0));
+        }
+    }
+
+    void removeTokenCaption(int index) {
+        captions.remove(index);
+        if (captionsReplaced) {
+            return;
+        }
+        CaptionChange last = lastCaptionChange();
+        if (last != null && last.inserted.isEmpty() && index == last.index) {
+            last.removed++;
+        } else if (last != null && last.inserted.isEmpty() && index == last.index - 1) {
+            last.index = index;
+            last.removed++;
+        } else {
+            queueCaptionChange(new CaptionChange(index, new ArrayList<>(), 1));
+        }
+    }
+
+    private CaptionChange lastCaptionChange() {
+        return captionChanges.isEmpty() ? null : captionChanges.get(captionChanges.size() - 1);
+    }
+
+    /*
+     * Once there are more changes than tokens, sending all the captions is
+     * smaller.
+     */
+    private void queueCaptionChange(CaptionChange change) {
+        if (captionChanges.size() >= captions.size()) {
+            captionChanges.clear();
+            captionsReplaced = true;
+        } else {
+            captionChanges.add(change);
+        }
     }
 
-    abstract protected void onDelete();
+    /**
+     * Marks this input for the next response if the captions were changed by
+     * {@link #addTokenCaption(String)} and {@link #removeTokenCaption(int)},
+     * so the changes are sent once per batch rather than per token.
+     */
+    void flushTokenCaptions() {
+        if (captionsReplaced || !captionChanges.isEmpty()) {
+            markAsDirty();
+        }
+    }
+
+    /*
+     * The whole caption list is only sent when the component is rendered for
+     * the first time, later the changes are sent, so adding a token to a
+     * thousand costs one caption rather than a thousand.
+     */
+    @Override
+    public void beforeClientResponse(boolean initial) {
+        super.beforeClientResponse(initial);
+        if (initial) {
+            if (captions != null) {
+                getState().tokens = new ArrayList<>(captions);
+            }
+        } else if (captionsReplaced) {
+            getRpcProxy(TokenFieldClientRpc.class).setTokens(new ArrayList<>(captions));
+        } else {
+            TokenFieldClientRpc client = getRpcProxy(TokenFieldClientRpc.class);
+            for (CaptionChange change : captionChanges) {
+                if (change.removed > 0) {
+                    client.removeTokens(change.index, change.removed);
+                } else {
+                    client.insertTokens(change.index, change.inserted);
+                }
+            }
+        }
+        captionChanges.clear();
+        captionsReplaced = false;
+    }
+
+    /**
+     * Captions inserted at, or a number of captions removed from, an index
+     */
+    private static final class CaptionChange implements Serializable {
+
+        int index;
+
+        final List<String> inserted;
+
+        int removed;
+
+        CaptionChange(int index, List<String> inserted, int removed) {
+            this.index = index;
+            this.inserted = inserted;
+            this.removed = removed;
+        }
+    }
+
+    @Override
+    protected TokenComboBoxState getState() {
+        return (TokenComboBoxState) super.getState();
+    }
+
+    @Override
+    protected TokenComboBoxState getState(boolean markAsDirty) {
+        return (TokenComboBoxState) super.getState(markAsDirty);
+    }
+
+    /**
+     * Called when the last tokens should be deleted.
+     *
+     * @param count the number of tokens to delete, at least 1
+     */
+    abstract protected void onDelete(int count);
+
+    /**
+     * Called with the tokens the user added on the client since the last
+     * call, in order; at each index either the selected item or the typed
+     * text is given.
+     *
+     * @param items   the selected suggestions, <code>null</code> for typed
+     *                tokens
+     * @param entered the typed texts, <code>null</code> for selected
+     *                suggestions
+     */
+    abstract protected void onTokensInput(List<M> items, List<String> entered);
+
+    /**
+     * Called when a token drawn by this input is clicked.
+     *
+     * @param index the index of the clicked token
+     */
+    abstract protected void onTokenClick(int index);
+
+    /**
+     * Called when more of the hidden tokens should be drawn, i.e. the "+N
+     * more" expander was clicked or the tokens were scrolled to the end.
+     */
+    abstract protected void onShowMore();
 
 }
@@ -0,0 +1,41 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The net set of tokens added and removed by one change of a {@link TokenField}
+ * value. Adding a token that was removed earlier in the same change (or the
+ * other way around) cancels out.
+ */
+class TokenDelta implements Serializable {
+
+    private final Set<String> added = new LinkedHashSet<>();
+    private final Set<String> removed = new LinkedHashSet<>();
+
+    void tokenAdded(String tokenId) {
+        if (!removed.remove(tokenId)) {
+            added.add(tokenId);
+        }
+    }
+
+    void tokenRemoved(String tokenId) {
+        if (!added.remove(tokenId)) {
+            removed.add(tokenId);
+        }
+    }
+
+    boolean isEmpty() {
+        return added.isEmpty() && removed.isEmpty();
+    }
+
+    Set<String> getAdded() {
+        return Collections.unmodifiableSet(added);
+    }
+
+    Set<String> getRemoved() {
+        return Collections.unmodifiableSet(removed);
+    }
+}
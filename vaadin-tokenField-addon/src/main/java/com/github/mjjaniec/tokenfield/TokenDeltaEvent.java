@@ -0,0 +1,84 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.Component;
+
+import java.util.Set;
+
+/**
+ * Tells which tokens one change of a {@link TokenField} added and removed, so
+ * that listeners, e.g. syncing the tokens to a database, need not diff the
+ * old and new values. A batch of changes (see {@link TokenField#batch(Runnable)})
+ * is one delta; a token added and removed again within it is in neither set.
+ *
+ * @see TokenField#addTokenDeltaListener(TokenDeltaListener)
+ */
+public class TokenDeltaEvent extends Component.Event {
+
+    private final Set<String> added;
+
+    private final Set<String> removed;
+
+    private final Set<String> oldValue;
+
+    private final Set<String> value;
+
+    /**
+     * Creates a new event.
+     *
+     * @param source   the changed field
+     * @param added    the tokens added, in order
+     * @param removed  the tokens removed, in order
+     * @param oldValue the value before the change
+     * @param value    the value after the change
+     */
+    public TokenDeltaEvent(TokenField source, Set<String> added, Set<String> removed, Set<String> oldValue,
+                           Set<String> value) {
+        super(source);
+        this.added = added;
+        this.removed = removed;
+        this.oldValue = oldValue;
+        this.value = value;
+    }
+
+    @Override
+    public TokenField getComponent() {
+        return (TokenField) super.getComponent();
+    }
+
+    /**
+     * Gets the tokens added by the change, in the order they were added.
+     *
+     * @return the added tokens
+     */
+    public Set<String> getAddedTokens() {
+        return added;
+    }
+
+    /**
+     * Gets the tokens removed by the change, in the order they were removed.
+     *
+     * @return the removed tokens
+     */
+    public Set<String> getRemovedTokens() {
+        return removed;
+    }
+
+    /**
+     * Gets the value before the change, as an immutable snapshot.
+     *
+     * @return the old tokens
+     */
+    public Set<String> getOldValue() {
+        return oldValue;
+    }
+
+    /**
+     * Gets the value after the change, as an immutable snapshot; listeners
+     * changing the field do not change it.
+     *
+     * @return the new tokens
+     */
+    public Set<String> getValue() {
+        return value;
+    }
+}
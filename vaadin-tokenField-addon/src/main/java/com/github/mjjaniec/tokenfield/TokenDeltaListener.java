@@ -0,0 +1,24 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.util.ReflectTools;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+
+/**
+ * Receives the tokens added to and removed from a {@link TokenField}, once per
+ * change; see {@link TokenField#addTokenDeltaListener(TokenDeltaListener)}.
+ */
+@FunctionalInterface
+public interface TokenDeltaListener extends Serializable {
+
+    Method TOKENS_CHANGED_METHOD = ReflectTools.findMethod(TokenDeltaListener.class, "tokensChanged",
+            TokenDeltaEvent.class);
+
+    /**
+     * Called after tokens were added or removed.
+     *
+     * @param event the added and removed tokens
+     */
+    void tokensChanged(TokenDeltaEvent event);
+}
@@ -1,10 +1,20 @@
 package com.github.mjjaniec.tokenfield;
 
+import com.vaadin.data.provider.CallbackDataProvider;
+import com.vaadin.data.provider.DataProvider;
 import com.vaadin.data.provider.ListDataProvider;
+import com.vaadin.data.provider.Query;
+import com.vaadin.server.SerializableToIntFunction;
+import com.vaadin.shared.Registration;
 import com.vaadin.ui.*;
 import com.vaadin.ui.themes.ValoTheme;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 
 
 public class TokenField extends CustomField<Set<String>> {
@@ -21,8 +31,44 @@ public class TokenField extends CustomField<Set<String>> {
         BEFORE
     }
 
+    public enum RenderMode {
+        /**
+         * Each token is a separate {@link Button} in the layout
+         */
+        BUTTONS,
+        /**
+         * All tokens are drawn by the input widget from a list of captions;
+         * no component is created per token
+         */
+        COMPACT
+    }
+
+    public enum FilteringMode {
+        /**
+         * Suggestions starting with the typed text
+         */
+        STARTS_WITH,
+        /**
+         * Suggestions containing the typed text anywhere
+         */
+        CONTAINS,
+        /**
+         * Suggestions starting with the typed text, allowing for a few typos
+         * (by edit distance)
+         */
+        FUZZY
+    }
+
     public static final String STYLE_TOKENFIELD = "tokenfield";
     public static final String STYLE_TOKENTEXTFIELD = "tokentextfield";
+    public static final String STYLE_MORE = "tokenfield-more";
+    public static final String STYLE_PENDING = "tokenfield-pending";
+
+    /**
+     * Comma, semicolon, newline and tab; see
+     * {@link #setTokenSeparators(String)}
+     */
+    public static final String DEFAULT_TOKEN_SEPARATORS = ",;\n\t";
 
 
     /**
@@ -35,33 +81,211 @@ public class TokenField extends CustomField<Set<String>> {
      */
     protected InsertPosition insertPosition = InsertPosition.BEFORE;
 
-    private ListDataProvider<String> dataProvider = new ListDataProvider<>(new ArrayList<>());
+    /**
+     * Current render mode
+     */
+    protected RenderMode renderMode = RenderMode.BUTTONS;
+
+    /**
+     * The data provider of the suggestions if it is a {@link ListDataProvider},
+     * otherwise <code>null</code>
+     */
+    private ListDataProvider<String> listDataProvider = new ListDataProvider<>(new ArrayList<>());
+
+    /**
+     * The data provider of the suggestions
+     */
+    private DataProvider<String, ?> dataProvider = listDataProvider;
+
+    /**
+     * How suggestions are matched, unless the data provider decides itself
+     */
+    private FilteringMode filteringMode = FilteringMode.CONTAINS;
+
+    /**
+     * Where new tokens are remembered, or <code>null</code> to use the data
+     * provider
+     */
+    private TokenSink tokenSink;
+
+    /**
+     * The items of a {@link ListDataProvider}, for finding duplicates of new
+     * tokens in O(1), and their count when last synchronized
+     */
+    private transient Set<String> listItems;
+    private transient int listItemCount;
 
     /**
      * The ComboBox used for input - should probably not be touched.
      */
     protected TokenComboBox<String> cb = new TokenComboBox<String>(insertPosition) {
 
-        protected void onDelete() {
-            if (!buttons.isEmpty()) {
-                List<String> keys = new ArrayList<>(buttons.keySet());
-                onTokenDelete(keys.get(keys.size() - 1));
+        protected void onDelete(int count) {
+            if (!tokens.isEmpty()) {
+                List<String> last = getLastTokens(count);
+                batch(() -> {
+                    for (int i = last.size() - 1; i >= 0; i--) {
+                        onTokenDelete(last.get(i));
+                    }
+                });
                 cb.focus();
             }
         }
 
+        protected void onTokenClick(int index) {
+            if (!TokenField.this.isReadOnly()) {
+                TokenField.this.onTokenClick(getTokenAt(index));
+            }
+        }
+
+        protected void onShowMore() {
+            showMoreTokens();
+        }
+
+        protected void onTokensInput(List<String> items, List<String> entered) {
+            if (TokenField.this.isReadOnly()) {
+                return;
+            }
+            List<String> accepted = tokenPipeline != null ? tokenPipeline.applyAll(entered) : entered;
+            batch(() -> {
+                List<String> input = new ArrayList<>(items.size());
+                for (int i = 0; i < items.size(); i++) {
+                    input.add(items.get(i) != null ? items.get(i) : accepted.get(i));
+                }
+                prefetchCaptions(input);
+                for (int i = 0; i < items.size(); i++) {
+                    if (items.get(i) != null) {
+                        acceptToken(items.get(i), false);
+                    } else if (accepted.get(i) != null && isNewTokensAllowed()) {
+                        acceptToken(accepted.get(i), true);
+                    }
+                }
+            });
+            cb.focus();
+        }
+
         {
-            setDataProvider(dataProvider);
+            setDataProvider(listDataProvider);
         }
     };
 
+    private final Button.ClickListener tokenClickListener = event -> onTokenClick(
+            ((TokenButton) event.getButton()).tokenId);
+
     /**
-     * Maps the tokenId (itemId) to the token button
+     * The current tokens, in order; each change creates a new version, so
+     * the value handed out is never changed. Serialized as an array
      */
-    protected LinkedHashMap<String, Button> buttons = new LinkedHashMap<>();
+    private transient PersistentTokenSet tokens = PersistentTokenSet.EMPTY;
+
+    /**
+     * Maps the tokenId (itemId) to the token button; empty in
+     * {@link RenderMode#COMPACT}
+     */
+    protected transient LinkedHashMap<String, Button> buttons = new LinkedHashMap<>();
 
     protected boolean rememberNewTokens = true;
 
+    /**
+     * Nesting depth of {@link #batch(Runnable)} scopes
+     */
+    private int batchDepth;
+
+    /**
+     * Net change of the value within the current (outermost) batch
+     */
+    private TokenDelta batchDelta;
+
+    /**
+     * The value when the current batch began
+     */
+    private transient PersistentTokenSet batchStartValue;
+
+    /**
+     * Buttons created within the current batch, not yet added to the layout
+     */
+    private transient Set<Button> pendingButtons = new LinkedHashSet<>();
+
+    /**
+     * How many tokens are rendered at most at first, and how many more are
+     * rendered per {@link #showMoreTokens()}; 0 for no limit
+     */
+    private int visibleTokenLimit = 0;
+
+    /**
+     * How many tokens are currently rendered at most
+     */
+    private int tokenWindow = Integer.MAX_VALUE;
+
+    /**
+     * The "+N more" button shown when not all tokens are rendered, in
+     * {@link RenderMode#BUTTONS}
+     */
+    private Button moreButton;
+
+    /**
+     * Canonicalizes token ids and captions, or <code>null</code>
+     */
+    private TokenInterner tokenInterner;
+
+    /**
+     * Normalizes and validates the tokens typed by the user, or
+     * <code>null</code>
+     */
+    private TokenPipeline tokenPipeline;
+
+    /**
+     * Resolves the captions of tokens, or <code>null</code>
+     */
+    private TokenCaptionProvider captionProvider;
+
+    /**
+     * Captions resolved in bulk for the tokens rendered by the current batch
+     */
+    private transient Map<String, String> prefetchedCaptions;
+
+    /**
+     * Runs the caption provider off the request thread, or <code>null</code>
+     */
+    private transient Executor captionExecutor;
+
+    /**
+     * Resolves the captions on the caption executor, if both it and a caption
+     * provider are set
+     */
+    private transient AsyncCaptionResolver captionResolver;
+
+    /**
+     * Checks the tokens input by the user, or <code>null</code>
+     */
+    private AsyncTokenValidator tokenValidator;
+
+    private transient AsyncTokenAcceptor tokenAcceptor;
+
+    /**
+     * The buttons of the tokens being checked by the token validator; not
+     * serialized, as the checks are not
+     */
+    private transient LinkedHashMap<String, Button> checkingButtons = new LinkedHashMap<>();
+
+    /**
+     * The tokens whose buttons were added to {@link #checkingButtons} in the
+     * current batch, to be placed in the layout when it ends
+     */
+    private transient List<String> newCheckingTokens = new ArrayList<>();
+
+    /**
+     * Receives the measurements of this field; not serialized
+     */
+    private transient TokenFieldMetrics metrics = TokenFieldMetrics.NONE;
+
+    /**
+     * The tokens added and removed within the current batch, including those
+     * cancelling out
+     */
+    private int batchAdded;
+    private int batchRemoved;
+
     /**
      * Create a new TokenField with a caption and a {@link InsertPosition}.
      *
@@ -141,7 +365,7 @@ public class TokenField extends CustomField<Set<String>> {
         cb.addValueChangeListener(event -> {
             String tokenId = event.getValue();
             if (tokenId != null) {
-                onTokenInput(tokenId);
+                batch(() -> acceptToken(tokenId, false));
                 cb.setValue(null);
                 cb.focus();
             }
@@ -149,9 +373,9 @@ public class TokenField extends CustomField<Set<String>> {
 
 
         cb.setNewItemProvider((ComboBox.NewItemProvider<String>) tokenId -> {
-            onTokenInput(tokenId);
-            if (rememberNewTokens) {
-                rememberToken(tokenId);
+            String accepted = tokenPipeline != null ? tokenPipeline.apply(tokenId) : tokenId;
+            if (accepted != null) {
+                batch(() -> acceptToken(accepted, true));
             }
             cb.focus();
             return Optional.ofNullable(tokenId);
@@ -162,56 +386,313 @@ public class TokenField extends CustomField<Set<String>> {
 
     }
 
-    protected void rememberToken(String tokenId) {
-        dataProvider.getItems().add(tokenId);
-        dataProvider.refreshAll();
+    private void inputNewToken(String tokenId) {
+        onTokenInput(tokenId);
+        if (rememberNewTokens) {
+            rememberToken(tokenId);
+        }
     }
 
     /*
-     * Rebuilds from scratch
+     * Inputs a token, once the async token validator, if any, accepts it;
+     * must be called within a batch.
      */
-    private void rebuild() {
-        layout.removeAllComponents();
-        if (!isReadOnly() && insertPosition == InsertPosition.AFTER) {
-            layout.addComponent(cb);
+    private void acceptToken(String tokenId, boolean typed) {
+        if (tokenValidator == null || tokens.contains(tokenId)) {
+            inputToken(tokenId, typed);
+            return;
         }
-        for (Button b2 : buttons.values()) {
-            layout.addComponent(b2);
+        UI ui = getUI();
+        if (ui == null) {
+            // no UI to apply the verdict in later
+            if (getTokenAcceptor().check(tokenId)) {
+                inputToken(tokenId, typed);
+            }
+        } else if (getTokenAcceptor().submit(tokenId, typed, ui, this::applyVerdicts)) {
+            checkingButtons.put(tokenId, createCheckingButton(tokenId));
+            newCheckingTokens.add(tokenId);
         }
-        if (!isReadOnly() && insertPosition == InsertPosition.BEFORE) {
-            layout.addComponent(cb);
+    }
+
+    private void inputToken(String tokenId, boolean typed) {
+        if (typed) {
+            inputNewToken(tokenId);
+        } else {
+            onTokenInput(tokenId);
+        }
+    }
+
+    /*
+     * Called within UI.access with the checks finished meanwhile.
+     */
+    private void applyVerdicts(List<AsyncTokenAcceptor.Check> checks) {
+        batch(() -> {
+            prefetchCaptions(checks.stream().filter(check -> check.accepted)
+                    .map(check -> check.tokenId).collect(Collectors.toList()));
+            for (AsyncTokenAcceptor.Check check : checks) {
+                layout.removeComponent(checkingButtons.remove(check.tokenId));
+                if (check.accepted) {
+                    inputToken(check.tokenId, check.typed);
+                }
+            }
+            metrics.layoutChanged(checks.size());
+        });
+    }
+
+    private Button createCheckingButton(String tokenId) {
+        Button b = new Button(intern(tokenId) + " ×");
+        b.setStyleName(ValoTheme.BUTTON_LINK);
+        b.addStyleName(STYLE_PENDING);
+        b.setDescription("Checking; click to cancel");
+        b.addClickListener(event -> removeToken(tokenId));
+        return b;
+    }
+
+    private AsyncTokenAcceptor getTokenAcceptor() {
+        if (tokenAcceptor == null) {
+            tokenAcceptor = new AsyncTokenAcceptor(tokenValidator);
+        }
+        return tokenAcceptor;
+    }
+
+    /**
+     * Sets the validator checking asynchronously whether the tokens input by
+     * the user are accepted, e.g. by asking a remote service, without keeping
+     * the session locked. A token input by the user is shown as pending (with
+     * the {@link #STYLE_PENDING} style) while it is checked; the tokens
+     * accepted meanwhile are passed to {@link #onTokenInput(String)} together,
+     * as one batch, within {@link UI#access(Runnable)}, so server push (see
+     * {@link com.vaadin.annotations.Push}) or polling must be enabled for
+     * them to show up without further user interaction. Rejected tokens just
+     * disappear. Removing a pending token, e.g. by clicking it, cancels its
+     * check.
+     * <p>
+     * Tokens input while the field is not attached to a UI are checked
+     * synchronously. The checks in progress are not serialized.
+     * </p>
+     *
+     * @param tokenValidator the validator, or <code>null</code> to pass the
+     *                       tokens to {@link #onTokenInput(String)} at once
+     */
+    public void setAsyncTokenValidator(AsyncTokenValidator tokenValidator) {
+        if (tokenAcceptor != null) {
+            tokenAcceptor.cancelAll();
+            tokenAcceptor = null;
+        }
+        checkingButtons.values().forEach(layout::removeComponent);
+        checkingButtons.clear();
+        this.tokenValidator = tokenValidator;
+    }
+
+    /**
+     * Gets the validator checking the tokens input by the user.
+     *
+     * @return the validator, or <code>null</code> if none is set
+     */
+    public AsyncTokenValidator getAsyncTokenValidator() {
+        return tokenValidator;
+    }
+
+    /**
+     * Gets the tokens input by the user and still being checked.
+     *
+     * @return the pending tokens, in input order
+     * @see #setAsyncTokenValidator(AsyncTokenValidator)
+     */
+    public Set<String> getPendingTokens() {
+        return tokenAcceptor != null ? tokenAcceptor.getPendingTokens() : Collections.emptySet();
+    }
+
+    /**
+     * Remembers a new token entered by the user, so that it is available as a
+     * suggestion later. The token goes to the {@link TokenSink} if one is
+     * set, otherwise to the data provider if it is a {@link TokenSink} itself
+     * or a {@link ListDataProvider} (unless already among its items); other
+     * data providers can't be written to, so the token is not remembered then.
+     * <p>
+     * Only the suggestions of this field are refreshed, and only if the
+     * current filter may match the new token; the data provider does not fire
+     * a change event that would make every field using it drop its
+     * suggestions and query them again.
+     * </p>
+     *
+     * @param tokenId the new token
+     * @see #setTokenSink(TokenSink)
+     */
+    protected void rememberToken(String tokenId) {
+        boolean remembered = true;
+        if (tokenSink != null) {
+            tokenSink.rememberToken(tokenId);
+        } else if (dataProvider instanceof TokenSink) {
+            ((TokenSink) dataProvider).rememberToken(tokenId);
+        } else if (listDataProvider != null) {
+            remembered = rememberListItem(listDataProvider.getItems(), tokenId);
+        } else {
+            remembered = false;
+        }
+        if (remembered) {
+            cb.refreshSuggestions(tokenId);
+        }
+    }
+
+    private boolean rememberListItem(Collection<String> items, String tokenId) {
+        if (items instanceof Set) {
+            return items.add(tokenId);
+        }
+        // the items may be changed elsewhere too; resync when they were
+        if (listItems == null || listItemCount != items.size()) {
+            listItems = new HashSet<>(items);
+        }
+        if (!listItems.add(tokenId)) {
+            return false;
+        }
+        items.add(tokenId);
+        listItemCount = items.size();
+        return true;
+    }
+
+    /**
+     * Tells whether a token may be a suggestion for a filter in any
+     * {@link FilteringMode}.
+     */
+    static boolean mayMatch(String tokenId, String filter) {
+        return SortedTokenArray.key(tokenId).contains(SortedTokenArray.key(filter))
+                || TrigramIndex.fuzzyMatches(filter, tokenId);
+    }
+
+    /**
+     * Sets where new tokens entered by the user are remembered, see
+     * {@link #setRememberNewTokens(boolean)}.
+     *
+     * @param tokenSink the sink for new tokens, or <code>null</code> to add
+     *                  them to the data provider (if possible)
+     */
+    public void setTokenSink(TokenSink tokenSink) {
+        this.tokenSink = tokenSink;
+    }
+
+    /**
+     * Gets the sink for new tokens.
+     *
+     * @return the token sink, or <code>null</code> if new tokens are added to
+     * the data provider
+     * @see #setTokenSink(TokenSink)
+     */
+    public TokenSink getTokenSink() {
+        return tokenSink;
+    }
+
+    /*
+     * Brings the layout in line with the buttons, input and insert position,
+     * touching only the components that are missing or out of place.
+     */
+    private void rebuild() {
+        List<Component> desired = new ArrayList<>(buttons.size() + 1);
+        if (renderMode == RenderMode.COMPACT) {
+            // the input draws the tokens, so it stays even when read-only
+            desired.add(cb);
+            desired.addAll(checkingButtons.values());
+        } else {
+            // the tokens being checked are next to the input
+            if (insertPosition == InsertPosition.AFTER) {
+                if (!isReadOnly()) {
+                    desired.add(cb);
+                }
+                desired.addAll(checkingButtons.values());
+            }
+            desired.addAll(buttons.values());
+            if (getHiddenTokenCount() > 0) {
+                desired.add(getMoreButton());
+            }
+            if (insertPosition == InsertPosition.BEFORE) {
+                desired.addAll(checkingButtons.values());
+                if (!isReadOnly()) {
+                    desired.add(cb);
+                }
+            }
         }
+        metrics.layoutRebuilt(LayoutUpdater.update(layout, desired));
+        pendingButtons.clear();
         if (layout instanceof HorizontalLayout) {
             ((HorizontalLayout) layout).setExpandRatio(cb, 1.0f);
         }
     }
 
     /*
-     * Might create a HashSet or two unnecessarily from time to time, but seems
-     * clearer that way.
+     * Applies the whole new value as one batch, so the value change event
+     * carries the real old value and the layout is updated once.
      *
-     * @see org.vaadin.tokenfield.CustomField#setInternalValue(java.lang.Object)
+     * @see com.vaadin.ui.AbstractField#setValue(java.lang.Object, boolean)
      */
     @Override
-    protected void doSetValue(Set<String> newValue) {
-        Set<String> old = getValue();
+    protected boolean setValue(Set<String> value, boolean userOriginated) {
+        if (userOriginated && isReadOnly()) {
+            return false;
+        }
+        beginBatch();
+        try {
+            doSetValue(value);
+            return !batchDelta.isEmpty();
+        } finally {
+            endBatch();
+        }
+    }
 
-        Set<String> remove = new HashSet<>(old);
-        Set<String> add = new HashSet<>(newValue);
-        remove.removeAll(newValue);
-        add.removeAll(old);
+    /*
+     * Diffs against the current tokens directly, so only the tokens that
+     * actually changed touch the layout.
+     *
+     * @see com.vaadin.ui.AbstractField#doSetValue(java.lang.Object)
+     */
+    @Override
+    protected void doSetValue(Set<String> newValue) {
+        Set<String> value = newValue == null ? Collections.emptySet() : newValue;
 
-        for (String tokenId : remove) {
+        List<String> removed = new ArrayList<>();
+        for (String tokenId : tokens) {
+            if (!value.contains(tokenId)) {
+                removed.add(tokenId);
+            }
+        }
+        for (String tokenId : removed) {
             removeTokenButton(tokenId);
         }
-        for (String tokenId : add) {
+        List<String> added = new ArrayList<>();
+        for (String tokenId : value) {
+            if (!tokens.contains(tokenId)) {
+                added.add(tokenId);
+            }
+        }
+        prefetchCaptions(added);
+        for (String tokenId : added) {
             addTokenButton(tokenId);
         }
     }
 
+    /**
+     * Gets the current tokens, in order, as an immutable snapshot: it does not
+     * change when the tokens change later, so it can be kept without copying
+     * it. Consecutive values share most of their structure, so keeping both
+     * costs O(log n) memory rather than a copy.
+     *
+     * @return the tokens
+     */
     @Override
     public Set<String> getValue() {
-        return buttons.keySet();
+        return tokens;
+    }
+
+    /*
+     * Tokens are addressed by index when drawn by the input; the token set
+     * finds them in O(log n).
+     */
+    private String getTokenAt(int index) {
+        return tokens.get(index);
+    }
+
+    private int indexOfToken(String tokenId, int limit) {
+        int index = tokens.indexOf(tokenId);
+        return index < limit ? index : -1;
     }
 
     /**
@@ -222,6 +703,11 @@ public class TokenField extends CustomField<Set<String>> {
      * (not both A and Q).
      * The default is to call {@link #addToken(String)} which will add the token
      * if it's not a duplicate.
+     * <p>
+     * The client shows tokens as soon as they are input, and sends several
+     * tokens input in quick succession in one request; tokens not added here
+     * disappear from the client again.
+     * </p>
      *
      * @param tokenId the token id selected (or input)
      */
@@ -241,27 +727,217 @@ public class TokenField extends CustomField<Set<String>> {
     }
 
 
+    private List<String> getLastTokens(int count) {
+        List<String> last = new ArrayList<>(Math.min(count, tokens.size()));
+        for (int i = Math.max(0, tokens.size() - count); i < tokens.size(); i++) {
+            last.add(tokens.get(i));
+        }
+        return last;
+    }
+
+    /**
+     * Called when the token is deleted from the keyboard, i.e. by backspace
+     * (or delete, if tokens are after the input) in an empty input; several
+     * deletions typed in quick succession are handled in one batch.
+     *
+     * @param tokenId the id of the token to delete
+     */
     protected void onTokenDelete(String tokenId) {
         onTokenClick(tokenId);
     }
 
+    /*
+     * Must be called within a batch; the button reaches the layout when the
+     * batch ends.
+     */
     private void addTokenButton(String val) {
-        Button b = new Button();
+        val = intern(val);
+        tokens = tokens.with(val);
+        if (getRenderedTokenCount() < tokenWindow) {
+            renderToken(val);
+        }
+        batchDelta.tokenAdded(val);
+        batchAdded++;
+    }
+
+    private void renderToken(String val) {
+        if (renderMode == RenderMode.COMPACT) {
+            cb.addTokenCaption(intern(getTokenCaption(val)));
+        } else {
+            Button b = createTokenButton(val);
+            buttons.put(val, b);
+            pendingButtons.add(b);
+        }
+    }
+
+    private int getRenderedTokenCount() {
+        return renderMode == RenderMode.COMPACT ? cb.getTokenCaptions().size() : buttons.size();
+    }
+
+    /**
+     * Gets the number of tokens that are currently not rendered because of
+     * the visible token limit.
+     *
+     * @return the number of hidden tokens
+     * @see #setVisibleTokenLimit(int)
+     */
+    public int getHiddenTokenCount() {
+        return tokens.size() - getRenderedTokenCount();
+    }
+
+    /*
+     * Only the ordered token ids are written besides the components; the
+     * buttons are in the layout anyway, the lookups derived from them are
+     * rebuilt once the whole component tree is read.
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeObject(tokens.toArray(new String[0]));
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tokens = PersistentTokenSet.of(Arrays.asList((String[]) in.readObject()));
+        metrics = TokenFieldMetrics.NONE;
+        buttons = new LinkedHashMap<>();
+        pendingButtons = new LinkedHashSet<>();
+        checkingButtons = new LinkedHashMap<>();
+        newCheckingTokens = new ArrayList<>();
+        in.registerValidation(this::restoreButtons, 0);
+    }
+
+    private void restoreButtons() {
+        List<Component> checking = new ArrayList<>();
+        for (Component c : layout) {
+            if (c instanceof TokenButton) {
+                buttons.put(((TokenButton) c).tokenId, (Button) c);
+            } else if (c.getStyleName().contains(STYLE_PENDING)) {
+                // the checks in progress are dropped, and so are their tokens
+                checking.add(c);
+            }
+        }
+        checking.forEach(layout::removeComponent);
+    }
+
+    private Button createTokenButton(String val) {
+        Button b = new TokenButton(val);
         configureTokenButton(val, b);
-        b.addListener(event -> onTokenClick(val));
+        b.addClickListener(tokenClickListener);
+        return b;
+    }
 
-        buttons.put(val, b);
+    /**
+     * A token button, knowing its token so that all the buttons can share one
+     * click listener, which is serialized once rather than per button.
+     */
+    private static class TokenButton extends Button {
+        private final String tokenId;
 
-        if (insertPosition == InsertPosition.BEFORE) {
-            layout.replaceComponent(cb, b);
-            layout.addComponent(cb);
+        TokenButton(String tokenId) {
+            this.tokenId = tokenId;
+        }
+    }
+
+    private void flushPendingButtons() {
+        if (pendingButtons.isEmpty()) {
+            return;
+        }
+        if (moreButton != null && layout.equals(moreButton.getParent())) {
+            // tokens refilling the window go before the expander; the window
+            // is bounded, so diffing it is cheap
+            rebuild();
+            return;
+        }
+        if (insertPosition == InsertPosition.BEFORE && !checkingButtons.isEmpty()) {
+            // in front of the tokens being checked, which are next to the
+            // input at the end
+            int trailing = checkingButtons.size() + (layout.equals(cb.getParent()) ? 1 : 0);
+            if (!insertAt(pendingButtons, layout.getComponentCount() - trailing)) {
+                rebuild();
+                return;
+            }
+        } else if (insertPosition == InsertPosition.BEFORE && layout.equals(cb.getParent())) {
+            insertBeforeInput(pendingButtons);
         } else {
-            layout.addComponent(b);
+            for (Button b : pendingButtons) {
+                layout.addComponent(b);
+            }
         }
-        if (layout instanceof HorizontalLayout) {
-            ((HorizontalLayout) layout).setExpandRatio(cb, 1.0f);
+        metrics.layoutChanged(pendingButtons.size());
+        pendingButtons.clear();
+    }
+
+    /*
+     * The buttons of the tokens being checked are next to the input, after
+     * the ones already there: in front of the input when tokens go before it,
+     * behind it otherwise.
+     */
+    private void flushCheckingButtons() {
+        if (newCheckingTokens.isEmpty()) {
+            return;
+        }
+        List<Button> added = new ArrayList<>(newCheckingTokens.size());
+        for (String tokenId : newCheckingTokens) {
+            Button b = checkingButtons.get(tokenId);
+            // unless removed again within the batch
+            if (b != null && b.getParent() == null) {
+                added.add(b);
+            }
         }
+        newCheckingTokens.clear();
+        if (added.isEmpty()) {
+            return;
+        }
+        boolean inputShown = layout.equals(cb.getParent());
+        int index;
+        if (renderMode == RenderMode.COMPACT) {
+            index = layout.getComponentCount();
+        } else if (insertPosition == InsertPosition.BEFORE) {
+            index = layout.getComponentCount() - (inputShown ? 1 : 0);
+        } else {
+            index = (inputShown ? 1 : 0) + checkingButtons.size() - added.size();
+        }
+        if (insertAt(added, index)) {
+            metrics.layoutChanged(added.size());
+        } else {
+            rebuild();
+        }
+    }
 
+    /*
+     * The input is always the last component when tokens go before it, so
+     * index based layouts can insert in front of it without shuffling the
+     * other slots.
+     */
+    private void insertBeforeInput(Collection<? extends Component> components) {
+        if (!insertAt(components, layout.getComponentCount() - 1)) {
+            layout.removeComponent(cb);
+            for (Component c : components) {
+                layout.addComponent(c);
+            }
+            layout.addComponent(cb);
+        }
+    }
+
+    /*
+     * Inserts the components at the given index, if the layout is index
+     * based.
+     */
+    private boolean insertAt(Collection<? extends Component> components, int index) {
+        if (layout instanceof CssLayout) {
+            CssLayout css = (CssLayout) layout;
+            for (Component c : components) {
+                css.addComponent(c, index++);
+            }
+        } else if (layout instanceof AbstractOrderedLayout) {
+            AbstractOrderedLayout ordered = (AbstractOrderedLayout) layout;
+            for (Component c : components) {
+                ordered.addComponent(c, index++);
+            }
+        } else {
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -282,17 +958,51 @@ public class TokenField extends CustomField<Set<String>> {
      *
      * @param tokenId the token to add
      */
-    public void addToken(String tokenId) {
-        Set<String> set = getValue();
-        if (set == null) {
-            set = new LinkedHashSet<>();
-        }
-        if (set.contains(tokenId)) {
-            return;
-        }
-        HashSet<String> newSet = new LinkedHashSet<>(set);
-        newSet.add(tokenId);
-        setValue(newSet);
+    public void addToken(String tokenId) {
+        if (tokens.contains(tokenId)) {
+            return;
+        }
+        beginBatch();
+        try {
+            addTokenButton(tokenId);
+        } finally {
+            endBatch();
+        }
+    }
+
+    /**
+     * Adds all the given tokens that do not already exist, as one batch: the
+     * layout is updated once and a single value change event is fired.
+     *
+     * @param tokenIds the tokens to add
+     * @see #addToken(String)
+     * @see #batch(Runnable)
+     */
+    public void addTokens(Collection<String> tokenIds) {
+        batch(() -> {
+            prefetchCaptions(tokenIds);
+            tokenIds.forEach(this::addToken);
+        });
+    }
+
+    /**
+     * Inputs the given tokens as if typed by the user, e.g. when importing a
+     * large list: they go through the {@link TokenPipeline} if one is set,
+     * then the accepted ones are passed to {@link #onTokenInput(String)} and
+     * remembered (see {@link #setRememberNewTokens(boolean)}) as one batch, so
+     * the layout is updated once and a single value change event is fired.
+     *
+     * @param tokenIds the tokens to input
+     * @see #setTokenPipeline(TokenPipeline)
+     */
+    public void inputTokens(Collection<String> tokenIds) {
+        // the pipeline may run on other threads, the field is only touched here
+        List<String> accepted = tokenPipeline != null ? tokenPipeline.process(tokenIds)
+                : new ArrayList<>(new LinkedHashSet<>(tokenIds));
+        batch(() -> {
+            prefetchCaptions(accepted);
+            accepted.forEach(tokenId -> acceptToken(tokenId, true));
+        });
     }
 
     /**
@@ -305,17 +1015,136 @@ public class TokenField extends CustomField<Set<String>> {
      * @param tokenId the token to remove
      */
     public void removeToken(String tokenId) {
-        Set<String> set = getValue();
-        LinkedHashSet<String> newSet = new LinkedHashSet<>(set);
-        newSet.remove(tokenId);
+        Button checking = checkingButtons.remove(tokenId);
+        if (checking != null) {
+            // the check is gone if the field was deserialized meanwhile
+            if (tokenAcceptor != null) {
+                tokenAcceptor.cancel(tokenId);
+            }
+            layout.removeComponent(checking);
+            metrics.layoutChanged(1);
+            return;
+        }
+        if (!tokens.contains(tokenId)) {
+            return;
+        }
+        beginBatch();
+        try {
+            removeTokenButton(tokenId);
+        } finally {
+            endBatch();
+        }
+    }
 
-        setValue(newSet);
+    /**
+     * Removes all the given tokens as one batch: the layout is updated once
+     * and a single value change event is fired.
+     *
+     * @param tokenIds the tokens to remove
+     * @see #removeToken(String)
+     * @see #batch(Runnable)
+     */
+    public void removeTokens(Collection<String> tokenIds) {
+        batch(() -> tokenIds.forEach(this::removeToken));
     }
 
+    /*
+     * Must be called within a batch.
+     */
     private void removeTokenButton(String tokenId) {
-        Button button = buttons.get(tokenId);
-        layout.removeComponent(button);
-        buttons.remove(tokenId);
+        boolean rendered;
+        if (renderMode == RenderMode.COMPACT) {
+            int index = indexOfToken(tokenId, cb.getTokenCaptions().size());
+            rendered = index >= 0;
+            if (rendered) {
+                cb.removeTokenCaption(index);
+            }
+        } else {
+            Button button = buttons.remove(tokenId);
+            rendered = button != null;
+            if (rendered && !pendingButtons.remove(button)) {
+                layout.removeComponent(button);
+                metrics.layoutChanged(1);
+            }
+        }
+        tokens = tokens.without(tokenId);
+        if (captionResolver != null) {
+            captionResolver.cancel(tokenId);
+        }
+        if (rendered && getHiddenTokenCount() > 0) {
+            // keep the window full
+            renderToken(getTokenAt(getRenderedTokenCount()));
+        }
+        batchDelta.tokenRemoved(tokenId);
+        batchRemoved++;
+    }
+
+    /**
+     * Runs the given changes as one batch. Tokens added and removed within
+     * the batch (e.g. via {@link #addToken(String)}, {@link #removeToken(String)}
+     * or {@link #setValue(Object)}) are collected; when the outermost batch
+     * ends, new token buttons are added to the layout in one go and a single
+     * value change event is fired for the net change, if any.
+     *
+     * @param changes the changes to apply
+     */
+    public void batch(Runnable changes) {
+        beginBatch();
+        try {
+            changes.run();
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void beginBatch() {
+        if (batchDepth++ == 0) {
+            batchDelta = new TokenDelta();
+            batchStartValue = tokens;
+            batchAdded = 0;
+            batchRemoved = 0;
+        }
+    }
+
+    private void endBatch() {
+        if (--batchDepth > 0) {
+            return;
+        }
+        TokenDelta delta = batchDelta;
+        PersistentTokenSet oldValue = batchStartValue;
+        batchDelta = null;
+        batchStartValue = null;
+        prefetchedCaptions = null;
+        flushCheckingButtons();
+        flushPendingButtons();
+        cb.flushTokenCaptions();
+        updateMoreIndicator();
+        if (captionResolver != null) {
+            captionResolver.submit(getUI(), this::applyCaptions);
+        }
+        if (batchAdded > 0 || batchRemoved > 0) {
+            metrics.tokensChanged(batchAdded, batchRemoved);
+        }
+        if (!delta.isEmpty()) {
+            // both values are snapshots sharing their structure, not copies;
+            // taken before the listeners may change the field again
+            PersistentTokenSet newValue = tokens;
+            fireEvent(createValueChange(oldValue, false));
+            fireEvent(new TokenDeltaEvent(this, delta.getAdded(), delta.getRemoved(), oldValue, newValue));
+        }
+    }
+
+    /**
+     * Adds a listener receiving the tokens added and removed by each change of
+     * the value, computed once by the field, so that listeners need not diff
+     * the old and new values. Like the value change event, one event is fired
+     * per batch (see {@link #batch(Runnable)}), after the value change event.
+     *
+     * @param listener the listener to add
+     * @return a registration for removing the listener
+     */
+    public Registration addTokenDeltaListener(TokenDeltaListener listener) {
+        return addListener(TokenDeltaEvent.class, listener, TokenDeltaListener.TOKENS_CHANGED_METHOD);
     }
 
     /**
@@ -331,11 +1160,66 @@ public class TokenField extends CustomField<Set<String>> {
      * @param button  the button to be configured
      */
     protected void configureTokenButton(String tokenId, Button button) {
-        button.setCaption(getTokenCaption(tokenId) + " ×");
+        button.setCaption(intern(getTokenCaption(tokenId) + " ×"));
         button.setDescription("Click to remove");
         button.setStyleName(ValoTheme.BUTTON_LINK);
     }
 
+    /**
+     * Sets the interner of token ids and captions, so that the strings of
+     * tokens common to many fields, e.g. of many sessions, are shared instead
+     * of duplicated. Interning is off by default.
+     *
+     * @param tokenInterner the interner, e.g. {@link TokenInterner#getDefault()},
+     *                      or <code>null</code> to turn interning off
+     */
+    public void setTokenInterner(TokenInterner tokenInterner) {
+        this.tokenInterner = tokenInterner;
+    }
+
+    /**
+     * Gets the interner of token ids and captions.
+     *
+     * @return the interner, or <code>null</code> if interning is off
+     */
+    public TokenInterner getTokenInterner() {
+        return tokenInterner;
+    }
+
+    /**
+     * Sets the pipeline normalizing and validating the tokens typed or pasted
+     * by the user, and those input by {@link #inputTokens(Collection)}, before
+     * they are passed to {@link #onTokenInput(String)}. Selected suggestions
+     * and tokens added programmatically do not go through the pipeline.
+     *
+     * @param tokenPipeline the pipeline, or <code>null</code> to take the
+     *                      tokens as they are
+     */
+    public void setTokenPipeline(TokenPipeline tokenPipeline) {
+        this.tokenPipeline = tokenPipeline;
+    }
+
+    /**
+     * Gets the pipeline normalizing and validating the tokens input by the
+     * user.
+     *
+     * @return the pipeline, or <code>null</code> if none is set
+     */
+    public TokenPipeline getTokenPipeline() {
+        return tokenPipeline;
+    }
+
+    /**
+     * Gets the canonical instance of a token id or caption, if interning is
+     * on.
+     *
+     * @param s the token id or caption
+     * @return an equal string
+     */
+    protected String intern(String s) {
+        return tokenInterner != null ? tokenInterner.intern(s) : s;
+    }
+
     /**
      * Gets the layout currently in use.
      *
@@ -388,13 +1272,169 @@ public class TokenField extends CustomField<Set<String>> {
 //            b.setReadOnly(readOnly);
 //        }
         super.setReadOnly(readOnly);
-        if (readOnly) {
+        if (renderMode == RenderMode.COMPACT) {
+            cb.setReadOnly(readOnly);
+        } else if (readOnly) {
             layout.removeComponent(cb);
         } else {
             rebuild();
         }
     }
 
+    /**
+     * Gets the current {@link RenderMode}.
+     *
+     * @return the current render mode
+     * @see #setRenderMode(RenderMode)
+     */
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    /**
+     * Sets how the tokens are rendered.
+     * <p>
+     * {@link RenderMode#BUTTONS} (the default) creates a {@link Button} per
+     * token, which can be customized via
+     * {@link #configureTokenButton(String, Button)}.
+     * {@link RenderMode#COMPACT} has the input draw all tokens from a list of
+     * captions, which costs far less memory and payload for fields with many
+     * tokens, and keeps serialized sessions small, as only the ids and
+     * captions of the tokens are written then;
+     * {@link #configureTokenButton(String, Button)} is not used then.
+     * </p>
+     *
+     * @param renderMode the render mode to use
+     */
+    public void setRenderMode(RenderMode renderMode) {
+        if (this.renderMode == renderMode) {
+            return;
+        }
+        this.renderMode = renderMode;
+        if (renderMode == RenderMode.COMPACT) {
+            buttons.clear();
+            cb.setTokenCaptions(new ArrayList<>());
+            cb.setReadOnly(isReadOnly());
+        } else {
+            cb.setTokenCaptions(null);
+            cb.setHiddenTokenCount(0);
+            cb.setReadOnly(false);
+        }
+        rerender();
+    }
+
+    /**
+     * Limits how many tokens are rendered, to keep fields holding thousands of
+     * tokens light on both the server and the browser. Only the first
+     * <code>limit</code> tokens are rendered, followed by a "+N more"
+     * expander; each {@link #showMoreTokens()} (e.g. by clicking the expander,
+     * or by scrolling to the end of the tokens in
+     * {@link RenderMode#COMPACT}) renders <code>limit</code> more.
+     *
+     * @param limit the number of tokens to render at first, or 0 to render all
+     */
+    public void setVisibleTokenLimit(int limit) {
+        visibleTokenLimit = Math.max(0, limit);
+        tokenWindow = visibleTokenLimit == 0 ? Integer.MAX_VALUE : visibleTokenLimit;
+        rerender();
+    }
+
+    /**
+     * Gets the visible token limit.
+     *
+     * @return the visible token limit, 0 if all tokens are rendered
+     * @see #setVisibleTokenLimit(int)
+     */
+    public int getVisibleTokenLimit() {
+        return visibleTokenLimit;
+    }
+
+    /**
+     * Renders up to {@link #getVisibleTokenLimit()} more of the hidden tokens.
+     */
+    public void showMoreTokens() {
+        if (getHiddenTokenCount() == 0) {
+            return;
+        }
+        tokenWindow += visibleTokenLimit;
+        beginBatch();
+        try {
+            List<String> shown = new ArrayList<>();
+            for (int i = getRenderedTokenCount(); i < tokens.size() && i < tokenWindow; i++) {
+                shown.add(tokens.get(i));
+            }
+            prefetchCaptions(shown);
+            shown.forEach(this::renderToken);
+        } finally {
+            endBatch();
+        }
+    }
+
+    /*
+     * Renders the tokens within the window for the current render mode,
+     * reusing existing buttons.
+     */
+    private void rerender() {
+        beginBatch();
+        try {
+            doRerender();
+        } finally {
+            endBatch();
+        }
+    }
+
+    private void doRerender() {
+        pendingButtons.clear();
+        prefetchCaptions(tokens);
+        if (renderMode == RenderMode.COMPACT) {
+            List<String> captions = new ArrayList<>();
+            for (String tokenId : tokens) {
+                if (captions.size() == tokenWindow) {
+                    break;
+                }
+                captions.add(intern(getTokenCaption(tokenId)));
+            }
+            cb.setTokenCaptions(captions);
+        } else {
+            LinkedHashMap<String, Button> old = buttons;
+            buttons = new LinkedHashMap<>();
+            for (String tokenId : tokens) {
+                if (buttons.size() == tokenWindow) {
+                    break;
+                }
+                Button b = old.get(tokenId);
+                buttons.put(tokenId, b != null ? b : createTokenButton(tokenId));
+            }
+        }
+        rebuild();
+        updateMoreIndicator();
+    }
+
+    private Button getMoreButton() {
+        if (moreButton == null) {
+            moreButton = new Button();
+            moreButton.setStyleName(ValoTheme.BUTTON_LINK);
+            moreButton.addStyleName(STYLE_MORE);
+            moreButton.setDescription("Click to show more");
+            moreButton.addClickListener(event -> showMoreTokens());
+        }
+        return moreButton;
+    }
+
+    private void updateMoreIndicator() {
+        int hidden = getHiddenTokenCount();
+        if (renderMode == RenderMode.COMPACT) {
+            cb.setHiddenTokenCount(hidden);
+            return;
+        }
+        boolean shown = moreButton != null && layout.equals(moreButton.getParent());
+        if (hidden > 0) {
+            getMoreButton().setCaption("+" + hidden + " more");
+        }
+        if (shown != hidden > 0) {
+            rebuild();
+        }
+    }
 
     /**
      * Sets whether or not tokens entered by the user that not present in the
@@ -411,6 +1451,32 @@ public class TokenField extends CustomField<Set<String>> {
         return cb.isTextInputAllowed();
     }
 
+    /**
+     * Sets the characters that separate tokens in text the user pastes or
+     * types, e.g. {@link #DEFAULT_TOKEN_SEPARATORS}. Such text is split in the
+     * browser, and all its tokens are sent to the server in one request and
+     * added in one batch, firing one value change event; each token goes
+     * through {@link #onTokenInput(String)} as if input separately. By
+     * default text is not split.
+     *
+     * @param separators the separator characters, or <code>null</code> to not
+     *                   split text
+     */
+    public void setTokenSeparators(String separators) {
+        cb.setTokenSeparators(separators);
+    }
+
+    /**
+     * Gets the characters that separate tokens in text the user pastes or
+     * types.
+     *
+     * @return the separator characters, or <code>null</code> if text is not
+     * split
+     */
+    public String getTokenSeparators() {
+        return cb.getTokenSeparators();
+    }
+
     /**
      * If true, new tokens entered by the user are automatically added to the
      * container.
@@ -432,31 +1498,115 @@ public class TokenField extends CustomField<Set<String>> {
         this.rememberNewTokens = rememberNewTokens;
     }
 
+    /**
+     * Sets an in-memory data provider for the suggestions; the suggestions
+     * are filtered by their caption. New tokens are remembered by adding them
+     * to the provider's items.
+     *
+     * @param provider the data provider to use
+     */
     public void setDataProvider(ListDataProvider<String> provider) {
+        this.cb.setDataProvider(captionFilter(filteringMode), provider);
+        this.dataProvider = provider;
+        this.listDataProvider = provider;
+        this.listItems = null;
+    }
+
+    /**
+     * Sets a data provider for the suggestions that is queried with the text
+     * typed by the user as the filter, e.g. a lazily paged backend
+     * {@link CallbackDataProvider}. Only the requested page of suggestions is
+     * fetched at a time.
+     *
+     * @param provider the data provider to use
+     * @see #setTokenSink(TokenSink)
+     */
+    public void setDataProvider(DataProvider<String, String> provider) {
         this.cb.setDataProvider(provider);
+        this.dataProvider = provider;
+        this.listDataProvider = null;
+    }
+
+    /**
+     * Sets a lazy backend for the suggestions, using the given fetch and count
+     * callbacks; the filter is the text typed by the user.
+     *
+     * @param fetchItems   fetches a page of suggestions for a filter
+     * @param sizeCallback counts the suggestions for a filter
+     * @see #setDataProvider(DataProvider)
+     */
+    public void setDataProvider(ComboBox.FetchItemsCallback<String> fetchItems,
+                                SerializableToIntFunction<String> sizeCallback) {
+        setDataProvider(new CallbackDataProvider<>(
+                q -> fetchItems.fetchItems(q.getFilter().orElse(""), q.getOffset(), q.getLimit()),
+                q -> sizeCallback.applyAsInt(q.getFilter().orElse(""))));
+    }
+
+    /**
+     * Binds the suggestions to a vocabulary shared with other fields, possibly
+     * of other sessions; new tokens remembered by this field are added to it.
+     * The suggestions are matched by prefix.
+     *
+     * @param vocabulary the shared vocabulary
+     * @see VocabularyDataProvider
+     */
+    public void setVocabulary(SharedVocabulary vocabulary) {
+        setDataProvider(new VocabularyDataProvider(vocabulary));
+    }
+
+    /**
+     * Gets the data provider of the suggestions.
+     *
+     * @return the data provider
+     */
+    public DataProvider<String, ?> getDataProvider() {
+        return dataProvider;
+    }
+
+    /**
+     * Sets how the suggestions are matched against the text typed by the user.
+     * <p>
+     * A {@link TokenIndexDataProvider} serves {@link FilteringMode#CONTAINS}
+     * and {@link FilteringMode#FUZZY} from a trigram index and ranks the
+     * results by match quality. A {@link ListDataProvider} is filtered by
+     * caption, keeping its own order. Other data providers receive the typed
+     * text as is, and decide how to match it themselves.
+     * </p>
+     *
+     * @param filteringMode the desired filtering mode
+     */
+    public void setFilteringMode(FilteringMode filteringMode) {
+        this.filteringMode = Objects.requireNonNull(filteringMode);
+        if (dataProvider instanceof TokenIndexDataProvider) {
+            ((TokenIndexDataProvider) dataProvider).setFilteringMode(filteringMode);
+        } else if (listDataProvider != null) {
+            cb.setDataProvider(captionFilter(filteringMode), listDataProvider);
+        }
+    }
+
+    /**
+     * Gets how the suggestions are matched against the text typed by the user.
+     *
+     * @return the current filtering mode
+     * @see #setFilteringMode(FilteringMode)
+     */
+    public FilteringMode getFilteringMode() {
+        if (dataProvider instanceof TokenIndexDataProvider) {
+            return ((TokenIndexDataProvider) dataProvider).getFilteringMode();
+        }
+        return filteringMode;
     }
 
-//    /**
-//     * Works as {@link ComboBox#setFilteringMode(int)}.
-//     *
-//     * @see ComboBox#setFilteringMode(int)
-//     * @param filteringMode
-//     *            the desired filtering mode
-//     */
-//    public void setFilteringMode(FilteringMode filteringMode) {
-//        cb.setFilteringMode(filteringMode);
-//    }
-//
-//    /**
-//     * Works as {@link ComboBox#getFilteringMode()}.
-//     *
-//     * @see ComboBox#getFilteringMode()
-//     * @param filteringMode
-//     *            the desired filtering mode
-//     */
-//    public FilteringMode getFilteringMode() {
-//        return cb.getDataProvider()();
-//    }
+    static ComboBox.CaptionFilter captionFilter(FilteringMode mode) {
+        switch (mode) {
+            case STARTS_WITH:
+                return (caption, filter) -> SortedTokenArray.key(caption).startsWith(SortedTokenArray.key(filter));
+            case FUZZY:
+                return (caption, filter) -> TrigramIndex.fuzzyMatches(filter, caption);
+            default:
+                return (caption, filter) -> SortedTokenArray.key(caption).contains(SortedTokenArray.key(filter));
+        }
+    }
 
     /*
      * (non-Javadoc)
@@ -482,7 +1632,202 @@ public class TokenField extends CustomField<Set<String>> {
      * @return the caption
      */
     public String getTokenCaption(String tokenId) {
-        return tokenId;
+        if (captionProvider == null) {
+            return tokenId;
+        }
+        if (captionResolver != null) {
+            String caption = captionResolver.getCaption(tokenId);
+            return caption != null ? caption : tokenId;
+        }
+        String caption = prefetchedCaptions != null ? prefetchedCaptions.get(tokenId) : null;
+        if (caption == null) {
+            caption = resolveCaptions(Collections.singleton(tokenId)).get(tokenId);
+        }
+        return caption != null ? caption : tokenId;
+    }
+
+    /**
+     * Sets the provider of the token captions, which
+     * {@link #getTokenCaption(String)} uses. The captions of all the tokens
+     * rendered in a batch, e.g. by {@link #addTokens(Collection)} or
+     * {@link #setValue(Object)}, are resolved by one call of the provider.
+     *
+     * @param captionProvider the caption provider, e.g. a
+     *                        {@link CachingCaptionProvider}, or
+     *                        <code>null</code> to use the token ids as captions
+     * @see #setCaptionExecutor(Executor)
+     */
+    public void setTokenCaptionProvider(TokenCaptionProvider captionProvider) {
+        this.captionProvider = captionProvider;
+        resetCaptionResolver();
+        rerenderCaptions();
+    }
+
+    /**
+     * Sets the executor to resolve the token captions on, so that the caption
+     * provider does not hold up the request, nor keep the session locked,
+     * while it queries a backend. Tokens are shown with their ids as captions
+     * at once; the captions resolved meanwhile are applied together, within
+     * {@link UI#access(Runnable)}, so server push (see
+     * {@link com.vaadin.annotations.Push}) or polling must be enabled for them
+     * to show up without further user interaction. Resolving the caption of a
+     * token removed meanwhile is cancelled.
+     * <p>
+     * The executor can be e.g. a bounded thread pool shared by all the
+     * sessions, or, on Java 21 or later, one starting a virtual thread per
+     * task. It is not serialized with the field, so it must be set again when
+     * the session is deserialized.
+     * </p>
+     *
+     * @param captionExecutor the executor, or <code>null</code> to resolve the
+     *                        captions on the request thread
+     * @see #setTokenCaptionProvider(TokenCaptionProvider)
+     */
+    public void setCaptionExecutor(Executor captionExecutor) {
+        this.captionExecutor = captionExecutor;
+        resetCaptionResolver();
+        if (captionProvider != null) {
+            rerenderCaptions();
+        }
+    }
+
+    /**
+     * Gets the executor the token captions are resolved on.
+     *
+     * @return the executor, or <code>null</code> if the captions are resolved
+     * on the request thread
+     */
+    public Executor getCaptionExecutor() {
+        return captionExecutor;
+    }
+
+    /**
+     * Gets the number of tokens whose captions are being resolved on the
+     * caption executor.
+     *
+     * @return the number of pending captions
+     * @see #setCaptionExecutor(Executor)
+     */
+    public int getPendingCaptionCount() {
+        return captionResolver != null ? captionResolver.getPendingCount() : 0;
+    }
+
+    private void resetCaptionResolver() {
+        if (captionResolver != null) {
+            captionResolver.cancelAll();
+        }
+        captionResolver = captionExecutor != null && captionProvider != null
+                ? new AsyncCaptionResolver(captionExecutor, captionProvider) : null;
+        if (captionResolver != null) {
+            captionResolver.setMetrics(metrics);
+        }
+    }
+
+    private void rerenderCaptions() {
+        // the buttons are configured with the old captions
+        buttons.clear();
+        rerender();
+    }
+
+    /*
+     * Called within UI.access with the captions resolved asynchronously.
+     */
+    private void applyCaptions(Map<String, String> captions) {
+        if (renderMode == RenderMode.COMPACT) {
+            rerender();
+            return;
+        }
+        for (String tokenId : captions.keySet()) {
+            Button button = buttons.get(tokenId);
+            if (button != null) {
+                configureTokenButton(tokenId, button);
+            }
+        }
+    }
+
+    @Override
+    public void attach() {
+        super.attach();
+        if (captionResolver != null) {
+            // captions requested before the field had a UI to apply them in
+            captionResolver.submit(getUI(), this::applyCaptions);
+        }
+    }
+
+    /**
+     * Gets the provider of the token captions.
+     *
+     * @return the caption provider, or <code>null</code> if none is set
+     */
+    public TokenCaptionProvider getTokenCaptionProvider() {
+        return captionProvider;
+    }
+
+    /*
+     * Resolves at once the captions of those of the given tokens that the
+     * current batch may render, i.e. not rendered yet and within the window.
+     */
+    private void prefetchCaptions(Collection<String> tokenIds) {
+        if (captionProvider == null || captionResolver != null) {
+            return;
+        }
+        Set<String> missing = new LinkedHashSet<>();
+        for (String tokenId : tokenIds) {
+            if (missing.size() == tokenWindow) {
+                break;
+            }
+            if (tokenId != null && !buttons.containsKey(tokenId)
+                    && (prefetchedCaptions == null || !prefetchedCaptions.containsKey(tokenId))) {
+                missing.add(tokenId);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        if (prefetchedCaptions == null) {
+            prefetchedCaptions = new HashMap<>();
+        }
+        prefetchedCaptions.putAll(resolveCaptions(missing));
+    }
+
+    private Map<String, String> resolveCaptions(Collection<String> tokenIds) {
+        if (metrics == TokenFieldMetrics.NONE) {
+            return captionProvider.getCaptions(tokenIds);
+        }
+        long start = System.nanoTime();
+        try {
+            return captionProvider.getCaptions(tokenIds);
+        } finally {
+            metrics.captionsResolved(tokenIds.size(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sets the metrics receiving the measurements of this field: the tokens
+     * added and removed per batch, the layout rebuilds and component
+     * operations, the calls from the client, and the duration of the
+     * suggestion queries and of the caption provider calls. The metrics can
+     * be shared by any number of fields; they are not serialized with the
+     * field, so they must be set again when the session is deserialized.
+     *
+     * @param metrics the metrics, e.g. an {@link InMemoryTokenFieldMetrics},
+     *                or <code>null</code> for {@link TokenFieldMetrics#NONE}
+     */
+    public void setMetrics(TokenFieldMetrics metrics) {
+        this.metrics = metrics != null ? metrics : TokenFieldMetrics.NONE;
+        cb.setMetrics(this.metrics);
+        if (captionResolver != null) {
+            captionResolver.setMetrics(this.metrics);
+        }
+    }
+
+    /**
+     * Gets the metrics receiving the measurements of this field.
+     *
+     * @return the metrics, {@link TokenFieldMetrics#NONE} by default
+     */
+    public TokenFieldMetrics getMetrics() {
+        return metrics;
     }
 
 
@@ -560,8 +1905,21 @@ public class TokenField extends CustomField<Set<String>> {
         cb.setTabIndex(tabIndex);
     }
 
+    /**
+     * Gets all the suggestions. Note that for backend data providers this
+     * fetches everything they hold.
+     *
+     * @return all token ids of the data provider
+     */
     public Collection<String> getTokenIds() {
-        return dataProvider.getItems();
+        if (listDataProvider != null) {
+            return listDataProvider.getItems();
+        }
+        return fetchAll(dataProvider);
+    }
+
+    private static <F> List<String> fetchAll(DataProvider<String, F> provider) {
+        return provider.fetch(new Query<>()).collect(Collectors.toList());
     }
 
 
@@ -0,0 +1,82 @@
+package com.github.mjjaniec.tokenfield;
+
+/**
+ * Receives measurements of what {@link TokenField}s do, e.g. to export them to
+ * a monitoring system; see {@link TokenField#setMetrics(TokenFieldMetrics)}.
+ * All the methods do nothing by default.
+ * <p>
+ * One instance can be shared by the fields of all the sessions, so
+ * implementations must be thread safe; caption resolution is also reported
+ * from the caption executor, if one is set. The calls are made while the
+ * session is locked, so they should be quick.
+ * </p>
+ *
+ * @see InMemoryTokenFieldMetrics
+ */
+public interface TokenFieldMetrics {
+
+    /**
+     * Measures nothing; the default. The fields skip taking the time when
+     * this is set, so it costs nothing.
+     */
+    TokenFieldMetrics NONE = new TokenFieldMetrics() {
+    };
+
+    /**
+     * Called when a batch of changes to the tokens ends, e.g. a single
+     * {@link TokenField#addToken(String)}, a {@link TokenField#setValue(Object)}
+     * or a request of the user adding several tokens, unless no token was
+     * added or removed.
+     *
+     * @param added   the number of tokens added by the batch
+     * @param removed the number of tokens removed by the batch
+     */
+    default void tokensChanged(int added, int removed) {
+    }
+
+    /**
+     * Called when the whole layout was brought in line with the tokens, e.g.
+     * after the insert position changed.
+     *
+     * @param componentOperations the number of components added to and
+     *                            removed from the layout
+     */
+    default void layoutRebuilt(int componentOperations) {
+    }
+
+    /**
+     * Called when components were added to or removed from the layout other
+     * than by a rebuild, e.g. the buttons of new tokens.
+     *
+     * @param componentOperations the number of components added and removed
+     */
+    default void layoutChanged(int componentOperations) {
+    }
+
+    /**
+     * Called when the input of a field receives a call from the client.
+     *
+     * @param method the name of the called method of
+     *               {@link com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc}
+     */
+    default void rpcCalled(String method) {
+    }
+
+    /**
+     * Called when the data provider of a field was queried for suggestions,
+     * either for their count or for a page of them.
+     *
+     * @param nanos how long the query took, in nanoseconds
+     */
+    default void suggestionsQueried(long nanos) {
+    }
+
+    /**
+     * Called when the caption provider of a field resolved captions.
+     *
+     * @param count the number of tokens whose captions were asked for
+     * @param nanos how long the caption provider took, in nanoseconds
+     */
+    default void captionsResolved(int count, long nanos) {
+    }
+}
@@ -0,0 +1,184 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.data.provider.Query;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * An in-memory data provider of suggestions for large token vocabularies.
+ * <p>
+ * The tokens are kept in a case-insensitively sorted array, so the prefix
+ * queries the {@link TokenComboBox} makes while the user types are answered by
+ * binary search: counting takes O(log n) and fetching a page of k suggestions
+ * O(log n + k), instead of a linear scan over all tokens for every keystroke.
+ * New tokens (see {@link TokenSink}) go to a small sorted buffer that is merged
+ * into the main array once it grows beyond roughly the square root of the
+ * vocabulary size, so inserts stay cheap.
+ * </p>
+ * <p>
+ * With {@link TokenField.FilteringMode#CONTAINS} or
+ * {@link TokenField.FilteringMode#FUZZY} the suggestions come from a trigram
+ * index, built on first use, ranked by match quality: closest and earliest
+ * matches first, shorter tokens before longer ones. The matches of the last
+ * filter are kept, so the count and page queries for one keystroke find them
+ * once; only the requested page is ranked and fetched.
+ * </p>
+ * <p>
+ * Instances are not thread safe; they are meant to be used by one session.
+ * </p>
+ *
+ * @see TokenField#setDataProvider(com.vaadin.data.provider.DataProvider)
+ */
+public class TokenIndexDataProvider extends AbstractBackEndDataProvider<String, String> implements TokenSink {
+
+    private static final int MIN_BUFFER_SIZE = 64;
+
+    private SortedTokenArray main;
+
+    private SortedTokenArray buffer = SortedTokenArray.EMPTY;
+
+    private TokenField.FilteringMode filteringMode = TokenField.FilteringMode.STARTS_WITH;
+
+    /**
+     * Built when first needed, see {@link #setFilteringMode}
+     */
+    private transient TrigramIndex trigrams;
+
+    private transient String rankedFilter;
+
+    private transient TrigramIndex.Matches ranked;
+
+    /**
+     * Creates an empty index.
+     */
+    public TokenIndexDataProvider() {
+        this(Collections.emptyList());
+    }
+
+    /**
+     * Creates an index of the given tokens; duplicates are dropped.
+     *
+     * @param tokens the tokens to index
+     */
+    public TokenIndexDataProvider(Collection<String> tokens) {
+        main = SortedTokenArray.of(tokens);
+    }
+
+    /**
+     * Adds a token to the index, if not already present.
+     *
+     * @param tokenId the token to add
+     * @return true if the token was added, false if it was already present
+     */
+    public boolean add(String tokenId) {
+        if (contains(tokenId)) {
+            return false;
+        }
+        buffer = buffer.insert(tokenId);
+        if (trigrams != null) {
+            trigrams.add(tokenId);
+        }
+        ranked = null;
+        if (buffer.size() > Math.max(MIN_BUFFER_SIZE, (int) Math.sqrt(main.size()))) {
+            main = main.merge(buffer);
+            buffer = SortedTokenArray.EMPTY;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the index holds the given token, in O(log n).
+     *
+     * @param tokenId the token
+     * @return true if the token is indexed
+     */
+    public boolean contains(String tokenId) {
+        return main.contains(tokenId) || buffer.contains(tokenId);
+    }
+
+    /**
+     * Gets the number of indexed tokens.
+     *
+     * @return the number of tokens
+     */
+    public int size() {
+        return main.size() + buffer.size();
+    }
+
+    /**
+     * Sets how the suggestions are matched against the filter; the default is
+     * {@link TokenField.FilteringMode#STARTS_WITH}.
+     *
+     * @param filteringMode the filtering mode
+     */
+    public void setFilteringMode(TokenField.FilteringMode filteringMode) {
+        if (this.filteringMode != Objects.requireNonNull(filteringMode)) {
+            this.filteringMode = filteringMode;
+            ranked = null;
+            refreshAll();
+        }
+    }
+
+    /**
+     * Gets how the suggestions are matched against the filter.
+     *
+     * @return the filtering mode
+     */
+    public TokenField.FilteringMode getFilteringMode() {
+        return filteringMode;
+    }
+
+    @Override
+    public void rememberToken(String tokenId) {
+        add(tokenId);
+    }
+
+    @Override
+    protected Stream<String> fetchFromBackEnd(Query<String, String> query) {
+        String prefix = prefix(query);
+        if (isRanked(prefix)) {
+            return ranked(prefix).page(query.getOffset(), query.getLimit()).stream();
+        }
+        return SortedTokenArray.fetch(main, buffer, prefix, query.getOffset(), query.getLimit()).stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<String, String> query) {
+        String prefix = prefix(query);
+        if (isRanked(prefix)) {
+            return ranked(prefix).size();
+        }
+        return main.prefixEnd(prefix) - main.prefixStart(prefix)
+                + buffer.prefixEnd(prefix) - buffer.prefixStart(prefix);
+    }
+
+    private boolean isRanked(String filter) {
+        return filteringMode != TokenField.FilteringMode.STARTS_WITH && !filter.isEmpty();
+    }
+
+    private TrigramIndex.Matches ranked(String filter) {
+        if (ranked == null || !filter.equals(rankedFilter)) {
+            if (trigrams == null) {
+                trigrams = new TrigramIndex();
+                for (int i = 0; i < main.size(); i++) {
+                    trigrams.add(main.get(i));
+                }
+                for (int i = 0; i < buffer.size(); i++) {
+                    trigrams.add(buffer.get(i));
+                }
+            }
+            ranked = filteringMode == TokenField.FilteringMode.CONTAINS
+                    ? trigrams.contains(filter) : trigrams.fuzzy(filter);
+            rankedFilter = filter;
+        }
+        return ranked;
+    }
+
+    private static String prefix(Query<String, String> query) {
+        return SortedTokenArray.key(query.getFilter().orElse(""));
+    }
+}
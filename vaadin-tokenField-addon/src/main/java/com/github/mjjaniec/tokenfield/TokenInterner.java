@@ -0,0 +1,173 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Canonicalizes token ids and captions, so a string repeated in many fields,
+ * e.g. a popular tag in thousands of sessions, is kept in memory once.
+ * <p>
+ * The table has a fixed number of slots, each weakly referencing one
+ * canonical string, so it is bounded and never keeps a string alive by
+ * itself. A string maps to one slot by hash; a different string hashing to
+ * the same slot replaces the old one, so frequently used strings stay and
+ * rare ones are forgotten. Slots are updated without locking; a lost race
+ * merely leaves a duplicate string, just as without interning.
+ * </p>
+ * <p>
+ * Interning is opt-in, see {@link TokenField#setTokenInterner(TokenInterner)}.
+ * The saved memory is reported by {@link #getSavedBytes()}.
+ * </p>
+ */
+public class TokenInterner implements Serializable {
+
+    private static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private static final TokenInterner DEFAULT = new TokenInterner(DEFAULT_CAPACITY, true);
+
+    /**
+     * Whether strings of this JVM keep Latin-1 text in one byte per character
+     * (Java 9 compact strings) rather than always two
+     */
+    private static final boolean COMPACT_STRINGS = hasCoder();
+
+    private final int capacity;
+
+    private final boolean isDefault;
+
+    private transient AtomicReferenceArray<WeakReference<String>> slots;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong savedBytes = new AtomicLong();
+
+    /**
+     * Creates an interner with the given number of slots.
+     *
+     * @param capacity the maximum number of canonical strings, rounded up to
+     *                 a power of two
+     */
+    public TokenInterner(int capacity) {
+        this(capacity, false);
+    }
+
+    private TokenInterner(int capacity, boolean isDefault) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.isDefault = isDefault;
+        this.slots = new AtomicReferenceArray<>(this.capacity);
+    }
+
+    /**
+     * Gets the interner shared by the whole JVM (more precisely, class
+     * loader), with 65536 slots.
+     *
+     * @return the default interner
+     */
+    public static TokenInterner getDefault() {
+        return DEFAULT;
+    }
+
+    private Object readResolve() {
+        if (isDefault) {
+            return DEFAULT;
+        }
+        slots = new AtomicReferenceArray<>(capacity);
+        return this;
+    }
+
+    /**
+     * Gets the canonical instance of the given string, remembering it as the
+     * canonical one if there is none yet.
+     *
+     * @param s the string, may be <code>null</code>
+     * @return an equal string, possibly the given one
+     */
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        int h = s.hashCode();
+        int index = (h ^ (h >>> 16)) & (capacity - 1);
+        WeakReference<String> ref = slots.get(index);
+        String canonical = ref == null ? null : ref.get();
+        if (canonical != null && canonical.equals(s)) {
+            if (canonical != s) {
+                hits.incrementAndGet();
+                savedBytes.addAndGet(sizeOf(s));
+            }
+            return canonical;
+        }
+        slots.set(index, new WeakReference<>(s));
+        return s;
+    }
+
+    private static boolean hasCoder() {
+        try {
+            String.class.getDeclaredField("coder");
+            return true;
+        } catch (NoSuchFieldException | SecurityException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Estimates the heap size of a string: the object and its character
+     * array, with compressed references; two bytes per character, or one for
+     * Latin-1 text on a JVM with compact strings.
+     */
+    static long sizeOf(String s) {
+        int bytesPerChar = COMPACT_STRINGS && isLatin1(s) ? 1 : 2;
+        return 24 + ((16 + (long) s.length() * bytesPerChar + 7) & ~7);
+    }
+
+    private static boolean isLatin1(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets how many times a duplicate string was replaced by the canonical
+     * one.
+     *
+     * @return the number of duplicates replaced
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Gets an estimate of the memory saved, in bytes: the size of all the
+     * duplicates replaced by canonical strings, which can be garbage
+     * collected unless referenced elsewhere.
+     *
+     * @return the estimated number of bytes saved
+     */
+    public long getSavedBytes() {
+        return savedBytes.get();
+    }
+
+    /**
+     * Gets the number of slots currently holding a live canonical string.
+     *
+     * @return the number of canonical strings
+     */
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < capacity; i++) {
+            WeakReference<String> ref = slots.get(i);
+            if (ref != null && ref.get() != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
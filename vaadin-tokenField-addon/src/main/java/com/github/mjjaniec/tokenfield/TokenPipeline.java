@@ -0,0 +1,125 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.server.SerializableFunction;
+import com.vaadin.server.SerializablePredicate;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * An ordered pipeline of normalizer and validator stages that tokens input by
+ * the user go through before they reach {@link TokenField#onTokenInput(String)},
+ * e.g.
+ * <pre>
+ * field.setTokenPipeline(new TokenPipeline()
+ *         .normalize(String::trim)
+ *         .normalize(s -&gt; s.toLowerCase(Locale.ROOT))
+ *         .validate(s -&gt; !s.isEmpty() &amp;&amp; s.length() &lt;= 32));
+ * </pre>
+ * <p>
+ * The stages are applied to one token after the other, so no intermediate
+ * collection is built per stage. Inputs of at least
+ * {@link #getParallelThreshold()} tokens are processed by a parallel stream,
+ * i.e. on the fork/join pool, so the stages must be thread safe and must not
+ * touch UI components; the order of the tokens is kept either way.
+ * </p>
+ *
+ * @see TokenField#setTokenPipeline(TokenPipeline)
+ */
+public class TokenPipeline implements Serializable {
+
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 10000;
+
+    /**
+     * Each stage returns the token to pass on, or <code>null</code> to reject
+     * it
+     */
+    private final List<SerializableFunction<String, String>> stages = new ArrayList<>();
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+
+    /**
+     * Appends a stage transforming tokens; a normalizer returning
+     * <code>null</code> rejects the token.
+     *
+     * @param normalizer the normalizer
+     * @return this pipeline
+     */
+    public TokenPipeline normalize(SerializableFunction<String, String> normalizer) {
+        stages.add(Objects.requireNonNull(normalizer));
+        return this;
+    }
+
+    /**
+     * Appends a stage rejecting the tokens the validator does not accept.
+     *
+     * @param validator the validator
+     * @return this pipeline
+     */
+    public TokenPipeline validate(SerializablePredicate<String> validator) {
+        Objects.requireNonNull(validator);
+        stages.add(token -> validator.test(token) ? token : null);
+        return this;
+    }
+
+    /**
+     * Sets the number of tokens from which input is processed in parallel.
+     *
+     * @param parallelThreshold the minimum input size for parallel processing
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Runs a token through all the stages.
+     *
+     * @param token the token
+     * @return the resulting token, or <code>null</code> if it was rejected
+     */
+    public String apply(String token) {
+        for (SerializableFunction<String, String> stage : stages) {
+            if (token == null) {
+                return null;
+            }
+            token = stage.apply(token);
+        }
+        return token;
+    }
+
+    /**
+     * Runs each of the tokens through all the stages.
+     *
+     * @param tokens the tokens
+     * @return the resulting tokens, in the same order, <code>null</code> for
+     * rejected ones
+     */
+    public List<String> applyAll(List<String> tokens) {
+        return stream(tokens).map(this::apply).collect(Collectors.toList());
+    }
+
+    /**
+     * Runs the tokens through all the stages, dropping rejected tokens and
+     * duplicates.
+     *
+     * @param tokens the tokens
+     * @return the accepted tokens, in order
+     */
+    public List<String> process(Collection<String> tokens) {
+        return stream(tokens).map(this::apply).filter(Objects::nonNull).distinct()
+                .collect(Collectors.toList());
+    }
+
+    private Stream<String> stream(Collection<String> tokens) {
+        return tokens.size() >= parallelThreshold ? tokens.parallelStream() : tokens.stream();
+    }
+}
@@ -0,0 +1,25 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+
+/**
+ * Receives the new tokens a {@link TokenField} should remember, i.e. make
+ * available as suggestions later; see
+ * {@link TokenField#setRememberNewTokens(boolean)}.
+ * <p>
+ * A data provider implementing this interface is used as the sink by default
+ * when it is set to a {@link TokenField}. The field refreshes its own
+ * suggestions after remembering a token, so a data provider need not fire a
+ * change event for it.
+ * </p>
+ */
+@FunctionalInterface
+public interface TokenSink extends Serializable {
+
+    /**
+     * Remembers the given new token.
+     *
+     * @param tokenId the token to remember
+     */
+    void rememberToken(String tokenId);
+}
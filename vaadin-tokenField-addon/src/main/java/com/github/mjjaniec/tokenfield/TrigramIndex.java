@@ -0,0 +1,303 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * An index of the trigrams (three character substrings) of tokens, serving
+ * substring and typo-tolerant lookups by intersecting or counting the posting
+ * lists of the trigrams of the filter, instead of scanning all tokens. The
+ * single characters and character pairs of the tokens are indexed too, so the
+ * one or two character filters typed first are answered from their posting
+ * list alone. Results are ranked by match quality, and only as far as the
+ * requested page needs.
+ */
+final class TrigramIndex implements Serializable {
+
+    private static final int Q = 3;
+
+    /**
+     * Marks the start of a token, so short prefixes also yield trigrams
+     */
+    private static final String START = "\u0001\u0001";
+
+    private final List<String> keys = new ArrayList<>();
+    private final List<String> tokens = new ArrayList<>();
+    private final Map<String, Postings> postings = new HashMap<>();
+
+    /**
+     * A growable list of token ids, in increasing order.
+     */
+    private static final class Postings implements Serializable {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * The tokens matching a filter with their match quality; lower ranks
+     * first. Counting them takes O(1); a page is selected with a heap of the
+     * size of the page and its offset, without sorting or materializing the
+     * other matches.
+     */
+    final class Matches {
+        private int[] ids = new int[16];
+        private int[] distances = new int[16];
+        private int[] positions = new int[16];
+        private int size;
+
+        private final Comparator<Integer> ranking = Comparator.<Integer>comparingInt(i -> distances[i])
+                .thenComparingInt(i -> positions[i])
+                .thenComparingInt(i -> tokens.get(ids[i]).length())
+                .thenComparing(i -> tokens.get(ids[i]));
+
+        void add(int id, int distance, int position) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            ids[size] = id;
+            distances[size] = distance;
+            positions[size] = position;
+            size++;
+        }
+
+        /**
+         * Gets the number of matching tokens.
+         *
+         * @return the number of matches
+         */
+        int size() {
+            return size;
+        }
+
+        /**
+         * Gets a page of the matching tokens, best first.
+         *
+         * @param offset the rank of the first token of the page
+         * @param limit  the maximum number of tokens in the page
+         * @return the tokens of the page
+         */
+        List<String> page(int offset, int limit) {
+            int end = (int) Math.min((long) offset + limit, size);
+            if (offset >= end) {
+                return new ArrayList<>();
+            }
+            // keeps the best end matches, the worst of them on top
+            PriorityQueue<Integer> best = new PriorityQueue<>(end, ranking.reversed());
+            for (int i = 0; i < size; i++) {
+                if (best.size() < end) {
+                    best.add(i);
+                } else if (ranking.compare(i, best.peek()) < 0) {
+                    best.poll();
+                    best.add(i);
+                }
+            }
+            String[] page = new String[end - offset];
+            for (int rank = end - 1; rank >= offset; rank--) {
+                page[rank - offset] = tokens.get(ids[best.poll()]);
+            }
+            return Arrays.asList(page);
+        }
+    }
+
+    void add(String token) {
+        String key = SortedTokenArray.key(token);
+        int id = tokens.size();
+        keys.add(key);
+        tokens.add(token);
+        Set<String> all = grams(START + key, Q);
+        all.addAll(grams(key, 1));
+        all.addAll(grams(key, 2));
+        for (String gram : all) {
+            postings.computeIfAbsent(gram, g -> new Postings()).add(id);
+        }
+    }
+
+    private static Set<String> grams(String s, int q) {
+        Set<String> result = new LinkedHashSet<>();
+        for (int i = 0; i + q <= s.length(); i++) {
+            result.add(s.substring(i, i + q));
+        }
+        return result;
+    }
+
+    /**
+     * Finds the tokens containing the given filter, ranked: matches at the
+     * start first, then by match position and token length.
+     *
+     * @param filter the filter text
+     * @return the matching tokens
+     */
+    Matches contains(String filter) {
+        String needle = SortedTokenArray.key(filter);
+        Matches matches = new Matches();
+        if (needle.isEmpty()) {
+            for (int id = 0; id < keys.size(); id++) {
+                matches.add(id, 0, 0);
+            }
+        } else if (needle.length() < Q) {
+            // the posting list of a single character or pair holds exactly
+            // the tokens containing it
+            Postings p = postings.get(needle);
+            if (p != null) {
+                for (int i = 0; i < p.size; i++) {
+                    matches.add(p.ids[i], 0, keys.get(p.ids[i]).indexOf(needle));
+                }
+            }
+        } else {
+            for (int id : intersect(grams(needle, Q))) {
+                int position = keys.get(id).indexOf(needle);
+                if (position >= 0) {
+                    matches.add(id, 0, position);
+                }
+            }
+        }
+        return matches;
+    }
+
+    private int[] intersect(Set<String> grams) {
+        List<Postings> lists = new ArrayList<>(grams.size());
+        for (String gram : grams) {
+            Postings p = postings.get(gram);
+            if (p == null) {
+                return new int[0];
+            }
+            lists.add(p);
+        }
+        lists.sort(Comparator.comparingInt(p -> p.size));
+
+        int[] result = Arrays.copyOf(lists.get(0).ids, lists.get(0).size);
+        int size = result.length;
+        for (int l = 1; l < lists.size() && size > 0; l++) {
+            Postings p = lists.get(l);
+            int kept = 0;
+            for (int i = 0; i < size; i++) {
+                if (Arrays.binarySearch(p.ids, 0, p.size, result[i]) >= 0) {
+                    result[kept++] = result[i];
+                }
+            }
+            size = kept;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Finds the tokens that start with the given filter, allowing for a few
+     * typos, ranked by edit distance. The allowed distance grows with the
+     * length of the filter: none up to 3 characters, 1 up to 7, 2 beyond.
+     *
+     * @param filter the filter text
+     * @return the matching tokens
+     */
+    Matches fuzzy(String filter) {
+        String needle = SortedTokenArray.key(filter);
+        int maxDistance = maxDistance(needle);
+
+        // q-gram lemma: a prefix within distance d of the filter shares at
+        // least |grams| - Q * d of the filter's (start padded) trigrams
+        Set<String> grams = grams(START + needle, Q);
+        int required = grams.size() - Q * maxDistance;
+
+        Matches matches = new Matches();
+        if (required <= 0) {
+            for (int id = 0; id < keys.size(); id++) {
+                addIfClose(matches, id, needle, maxDistance);
+            }
+        } else {
+            Map<Integer, int[]> counts = new HashMap<>();
+            for (String gram : grams) {
+                Postings p = postings.get(gram);
+                if (p != null) {
+                    for (int i = 0; i < p.size; i++) {
+                        counts.computeIfAbsent(p.ids[i], id -> new int[1])[0]++;
+                    }
+                }
+            }
+            Set<Integer> candidates = new HashSet<>();
+            counts.forEach((id, count) -> {
+                if (count[0] >= required) {
+                    candidates.add(id);
+                }
+            });
+            for (int id : candidates) {
+                addIfClose(matches, id, needle, maxDistance);
+            }
+        }
+        return matches;
+    }
+
+    private void addIfClose(Matches matches, int id, String needle, int maxDistance) {
+        String key = keys.get(id);
+        int distance = prefixDistance(needle, key, maxDistance);
+        if (distance <= maxDistance) {
+            int position = key.indexOf(needle);
+            matches.add(id, distance, position < 0 ? Integer.MAX_VALUE : position);
+        }
+    }
+
+    private static int maxDistance(String needle) {
+        return needle.length() <= 3 ? 0 : needle.length() <= 7 ? 1 : 2;
+    }
+
+    /**
+     * Checks whether a single token matches the filter as in
+     * {@link #fuzzy(String)}, without an index.
+     */
+    static boolean fuzzyMatches(String filter, String token) {
+        String needle = SortedTokenArray.key(filter);
+        int maxDistance = maxDistance(needle);
+        return prefixDistance(needle, SortedTokenArray.key(token), maxDistance) <= maxDistance;
+    }
+
+    /**
+     * Computes the smallest edit distance between the pattern and any prefix
+     * of the text; gives up with <code>max + 1</code> as soon as it is known
+     * to exceed <code>max</code>.
+     */
+    static int prefixDistance(String pattern, String text, int max) {
+        int m = pattern.length();
+        int n = Math.min(text.length(), m + max);
+        int[] previous = new int[n + 1];
+        int[] current = new int[n + 1];
+        for (int j = 0; j <= n; j++) {
+            previous[j] = j;
+        }
+        for (int i = 1; i <= m; i++) {
+            current[0] = i;
+            int rowMin = current[0];
+            for (int j = 1; j <= n; j++) {
+                int cost = pattern.charAt(i - 1) == text.charAt(j - 1) ? 0 : 1;
+                current[j] = Math.min(Math.min(current[j - 1] + 1, previous[j] + 1), previous[j - 1] + cost);
+                rowMin = Math.min(rowMin, current[j]);
+            }
+            if (rowMin > max) {
+                return max + 1;
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int j = 0; j <= n; j++) {
+            best = Math.min(best, previous[j]);
+        }
+        return best;
+    }
+}
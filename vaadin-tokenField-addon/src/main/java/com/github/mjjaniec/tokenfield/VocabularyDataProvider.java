@@ -0,0 +1,51 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.AbstractBackEndDataProvider;
+import com.vaadin.data.provider.Query;
+
+import java.util.Objects;
+import java.util.stream.Stream;
+
+/**
+ * A data provider of suggestions from a {@link SharedVocabulary}. Each field
+ * gets its own instance, holding only a reference to the vocabulary, so the
+ * listeners of one session are not registered on an object shared with other
+ * sessions. Tokens remembered in other sessions show up on the next query.
+ */
+public class VocabularyDataProvider extends AbstractBackEndDataProvider<String, String> implements TokenSink {
+
+    private final SharedVocabulary vocabulary;
+
+    /**
+     * Creates a data provider of the given vocabulary.
+     *
+     * @param vocabulary the shared vocabulary
+     */
+    public VocabularyDataProvider(SharedVocabulary vocabulary) {
+        this.vocabulary = Objects.requireNonNull(vocabulary);
+    }
+
+    /**
+     * Gets the vocabulary of the suggestions.
+     *
+     * @return the shared vocabulary
+     */
+    public SharedVocabulary getVocabulary() {
+        return vocabulary;
+    }
+
+    @Override
+    public void rememberToken(String tokenId) {
+        vocabulary.add(tokenId);
+    }
+
+    @Override
+    protected Stream<String> fetchFromBackEnd(Query<String, String> query) {
+        return vocabulary.fetch(query.getFilter().orElse(""), query.getOffset(), query.getLimit()).stream();
+    }
+
+    @Override
+    protected int sizeInBackEnd(Query<String, String> query) {
+        return vocabulary.count(query.getFilter().orElse(""));
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.mjjaniec.tokenfield.client;
+
+import java.util.List;
+
+import com.vaadin.shared.ui.combobox.ComboBoxState;
+
+public class TokenComboBoxState extends ComboBoxState {
+
+    /**
+     * Whether tokens are placed after the input
+     */
+    public boolean after = false;
+
+    /**
+     * Captions of the tokens drawn by the input widget itself, or
+     * <code>null</code> when the tokens are rendered as separate components;
+     * only up to date when the component is rendered for the first time, as
+     * later changes are sent through {@link TokenFieldClientRpc}
+     */
+    public List<String> tokens = null;
+
+    /**
+     * Number of tokens not included in {@link #tokens}
+     */
+    public int hiddenTokens = 0;
+
+    /**
+     * Total number of token deletions requested by the client that the
+     * server has handled; lets the client show tokens it hid while waiting
+     * again, if they were not deleted after all
+     */
+    public int deletedTokens = 0;
+
+    /**
+     * Total number of token additions sent by the client that the server has
+     * handled; lets the client drop the tokens it showed while waiting, as
+     * the server renders the accepted ones
+     */
+    public int addedTokens = 0;
+
+    /**
+     * Characters separating tokens in pasted or typed text, split on the
+     * client; <code>null</code> or empty to not split
+     */
+    public String separators = null;
+}
@@ -0,0 +1,36 @@
+package com.github.mjjaniec.tokenfield.client;
+
+import java.util.List;
+
+import com.vaadin.shared.communication.ClientRpc;
+
+/**
+ * Changes to the tokens drawn by the input widget, sent instead of the whole
+ * {@link TokenComboBoxState#tokens} list, which is only sent when the
+ * component is rendered for the first time or starts or stops drawing tokens.
+ */
+public interface TokenFieldClientRpc extends ClientRpc {
+
+    /**
+     * Inserts tokens into the drawn ones.
+     *
+     * @param index    the index of the first inserted token
+     * @param captions the captions of the inserted tokens, in order
+     */
+    void insertTokens(int index, List<String> captions);
+
+    /**
+     * Removes drawn tokens.
+     *
+     * @param index the index of the first removed token
+     * @param count the number of removed tokens
+     */
+    void removeTokens(int index, int count);
+
+    /**
+     * Replaces all the drawn tokens.
+     *
+     * @param captions the captions of the tokens, in order
+     */
+    void setTokens(List<String> captions);
+}
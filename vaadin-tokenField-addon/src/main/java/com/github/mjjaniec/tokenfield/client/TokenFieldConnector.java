@@ -1,8 +1,15 @@
 package com.github.mjjaniec.tokenfield.client;
 
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.github.mjjaniec.tokenfield.TokenComboBox;
 import com.google.gwt.core.client.GWT;
+import com.google.gwt.user.client.ui.Widget;
+import com.vaadin.client.ComponentConnector;
+import com.vaadin.client.HasComponentsConnector;
+import com.vaadin.client.annotations.OnStateChange;
 import com.vaadin.client.communication.RpcProxy;
 import com.vaadin.client.ui.combobox.ComboBoxConnector;
 import com.vaadin.shared.ui.Connect;
@@ -15,10 +22,162 @@ public class TokenFieldConnector extends ComboBoxConnector {
 
     protected boolean after = false;
 
+    private int deletedTokens = 0;
+
+    private int addedTokens = 0;
+
+    /**
+     * Token components hidden while being deleted
+     */
+    private final List<Widget> deletingWidgets = new ArrayList<>();
+
     @Override
     protected void init() {
-        getWidget().addListener(() -> rpc.deleteToken());
+        super.init();
+        registerRpc(TokenFieldClientRpc.class, new TokenFieldClientRpc() {
+            @Override
+            public void insertTokens(int index, List<String> captions) {
+                getWidget().insertTokens(index, captions);
+            }
+
+            @Override
+            public void removeTokens(int index, int count) {
+                getWidget().removeTokens(index, count);
+            }
+
+            @Override
+            public void setTokens(List<String> captions) {
+                getWidget().setTokens(captions, getState().hiddenTokens);
+            }
+        });
+        getWidget().addListener(new VTokenField.DeleteListener() {
+            @Override
+            public void onDelete(int count) {
+                rpc.deleteTokens(count);
+            }
+
+            @Override
+            public void onDeleting(int count) {
+                hideDeletingTokens(count);
+            }
+        });
+        getWidget().addListener(new VTokenField.AddListener() {
+            @Override
+            public void onAdd(List<String> keys, List<String> captions) {
+                rpc.addTokens(keys, captions);
+            }
+        });
+        getWidget().tokenList.addListener(new VTokenList.ClickListener() {
+            @Override
+            public void onTokenClick(int index) {
+                if (isEnabled() && !isReadOnly()) {
+                    rpc.clickToken(index);
+                }
+            }
+
+            @Override
+            public void onShowMore() {
+                rpc.showMoreTokens();
+            }
+        });
+    }
+
+    @OnStateChange("after")
+    void updateAfter() {
+        after = getState().after;
+        getWidget().setAfter(after);
+    }
+
+    /*
+     * The tokens in the state are only sent on the first render and when the
+     * widget starts or stops drawing tokens; they are changed through
+     * TokenFieldClientRpc otherwise.
+     */
+    @OnStateChange("tokens")
+    void updateTokens() {
+        getWidget().setTokens(getState().tokens, getState().hiddenTokens);
+    }
+
+    @OnStateChange("hiddenTokens")
+    void updateHiddenTokens() {
+        getWidget().setHiddenTokens(getState().hiddenTokens);
+    }
 
+    @OnStateChange("deletedTokens")
+    void updateDeletedTokens() {
+        int handled = getState().deletedTokens - deletedTokens;
+        deletedTokens = getState().deletedTokens;
+        if (handled > 0) {
+            getWidget().confirmDeletes(handled);
+        }
+    }
+
+    @OnStateChange("addedTokens")
+    void updateAddedTokens() {
+        int handled = getState().addedTokens - addedTokens;
+        addedTokens = getState().addedTokens;
+        if (handled > 0) {
+            getWidget().confirmAdditions(handled);
+        }
+    }
+
+    /*
+     * Tokens are shown as soon as they are selected or typed, and sent to the
+     * server in batches, instead of a round trip per token.
+     */
+    @Override
+    public void sendSelection(String selectionKey) {
+        if (getWidget().currentSuggestion == null
+                || !getWidget().currentSuggestion.getOptionKey().equals(selectionKey)) {
+            super.sendSelection(selectionKey);
+        } else {
+            getWidget().addToken(selectionKey, getWidget().currentSuggestion.getReplacementString());
+        }
+    }
+
+    @Override
+    public void sendNewItem(String itemValue) {
+        getWidget().addTypedToken(itemValue);
+    }
+
+    @OnStateChange("separators")
+    void updateSeparators() {
+        getWidget().setSeparators(getState().separators);
+    }
+
+    /*
+     * Tokens drawn by the widget are hidden by the widget itself; token
+     * components are the siblings of this one in the layout, the last of
+     * them is deleted first - unless some are hidden behind the expander.
+     */
+    private void hideDeletingTokens(int count) {
+        for (Widget w : deletingWidgets) {
+            w.setVisible(true);
+        }
+        deletingWidgets.clear();
+        if (count == 0 || getState().tokens != null || !(getParent() instanceof HasComponentsConnector)) {
+            return;
+        }
+        List<Widget> tokenWidgets = new ArrayList<>();
+        for (ComponentConnector c : ((HasComponentsConnector) getParent()).getChildComponents()) {
+            if (c == this) {
+                continue;
+            }
+            List<String> styles = c.getState().styles;
+            if (styles != null && styles.contains(VTokenList.MORE_CLASSNAME)) {
+                return;
+            }
+            if (styles != null && styles.contains(VTokenList.PENDING_CLASSNAME)) {
+                // still being checked, not a token yet
+                continue;
+            }
+            tokenWidgets.add(c.getWidget());
+        }
+        for (int i = tokenWidgets.size() - 1; i >= 0 && deletingWidgets.size() < count; i--) {
+            Widget w = tokenWidgets.get(i);
+            w.setVisible(false);
+            deletingWidgets.add(w);
+        }
     }
 
     @Override
@@ -26,6 +185,11 @@ public class TokenFieldConnector extends ComboBoxConnector {
         return (VTokenField) super.getWidget();
     }
 
+    @Override
+    public TokenComboBoxState getState() {
+        return (TokenComboBoxState) super.getState();
+    }
+
 //    @Override
 //    protected VTokenField createWidget() {
 //        // TODO Auto-generated method stub
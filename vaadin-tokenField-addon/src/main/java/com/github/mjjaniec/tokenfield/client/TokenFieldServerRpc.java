@@ -1,8 +1,40 @@
 package com.github.mjjaniec.tokenfield.client;
 
+import java.util.List;
+
 import com.vaadin.shared.communication.ServerRpc;
 
 public interface TokenFieldServerRpc extends ServerRpc {
 
     void deleteToken();
+
+    /**
+     * Called when the last tokens should be deleted, e.g. after backspace was
+     * pressed a few times in an empty input.
+     *
+     * @param count the number of tokens to delete
+     */
+    void deleteTokens(int count);
+
+    /**
+     * Called with the tokens added by the user since the last call, in order.
+     *
+     * @param keys     the keys of the selected suggestions, "" for typed
+     *                 tokens
+     * @param captions the typed texts of typed tokens (and the captions of
+     *                 selected suggestions)
+     */
+    void addTokens(List<String> keys, List<String> captions);
+
+    /**
+     * Called when a token drawn by the input widget is clicked.
+     *
+     * @param index the index of the token in {@link TokenComboBoxState#tokens}
+     */
+    void clickToken(int index);
+
+    /**
+     * Called when more of the hidden tokens should be drawn.
+     */
+    void showMoreTokens();
 }
@@ -1,55 +1,460 @@
-package com.github.mjjaniec.tokenfield.client;
-
-import java.util.LinkedList;
-import java.util.List;
-
-import com.google.gwt.event.dom.client.KeyCodes;
-import com.google.gwt.event.dom.client.KeyDownEvent;
-import com.google.gwt.user.client.ui.TextBox;
-import com.vaadin.client.ui.VComboBox;
-
-public class VTokenField extends VComboBox {
-
-    protected boolean after = false;
-
-    protected List<DeleteListener> listeners = new LinkedList<DeleteListener>();
-
-    public void onKeyDown(KeyDownEvent event) {
-        if (!enabled || readonly) {
-            return;
-        }
-        int kc = event.getNativeKeyCode();
-        if (kc == KeyCodes.KEY_BACKSPACE || kc == KeyCodes.KEY_DELETE) {
-            if (event.getSource() instanceof TextBox
-                    && "".equals(((TextBox) event.getSource()).getText())) {
-                if ((kc == KeyCodes.KEY_BACKSPACE && !after)
-                        || (kc == KeyCodes.KEY_DELETE && after)) {
-                    fireDeleteListeners();
-                    return;
-                }
-            }
-        }
-
-        super.onKeyDown(event);
-
-    }
-
-    private void fireDeleteListeners() {
-        for (DeleteListener l : listeners) {
-            l.onDelete();
-        }
-    }
-
-    public void addListener(DeleteListener l) {
-        listeners.add(l);
-    }
-
-    public void removeListener(DeleteListener l) {
-        listeners.remove(l);
-    }
-
-    public interface DeleteListener {
-        void onDelete();
-    }
-
-}
+package com.github.mjjaniec.tokenfield.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.gwt.core.client.Scheduler;
+import com.google.gwt.event.dom.client.BlurEvent;
+import com.google.gwt.event.dom.client.KeyCodes;
+import com.google.gwt.event.dom.client.KeyDownEvent;
+import com.google.gwt.user.client.Event;
+import com.google.gwt.user.client.Timer;
+import com.google.gwt.user.client.ui.FlowPanel;
+import com.google.gwt.user.client.ui.TextBox;
+import com.vaadin.client.ui.VComboBox;
+
+public class VTokenField extends VComboBox {
+
+    /**
+     * How long (in milliseconds) to wait for more additions or deletions
+     * before sending them to the server
+     */
+    private static final int SYNC_DELAY_MS = 300;
+
+    protected boolean after = false;
+
+    protected List<DeleteListener> listeners = new LinkedList<DeleteListener>();
+
+    protected List<AddListener> addListeners = new LinkedList<AddListener>();
+
+    /**
+     * Draws the tokens when they are rendered by this widget instead of
+     * separate token components, and the tokens added but not confirmed by
+     * the server yet
+     */
+    protected final VTokenList tokenList = new VTokenList();
+
+    private List<String> tokens;
+
+    private int hiddenTokens;
+
+    /**
+     * Characters separating tokens in pasted or typed text, or
+     * <code>null</code>
+     */
+    private String separators;
+
+    /**
+     * Deletions typed but not sent to the server yet
+     */
+    private int pendingDeletes;
+
+    /**
+     * Deletions sent to the server but not confirmed yet
+     */
+    private int unconfirmedDeletes;
+
+    /**
+     * Suggestion keys ("" for typed tokens) and captions of the tokens added
+     * but not sent to the server yet
+     */
+    private final List<String> pendingKeys = new ArrayList<String>();
+    private final List<String> pendingCaptions = new ArrayList<String>();
+
+    /**
+     * Captions of the tokens sent to the server but not confirmed yet
+     */
+    private final List<String> unconfirmedCaptions = new ArrayList<String>();
+
+    private final Timer syncTimer = new Timer() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public void onKeyDown(KeyDownEvent event) {
+        if (!enabled || readonly) {
+            return;
+        }
+        int kc = event.getNativeKeyCode();
+        if (kc == KeyCodes.KEY_BACKSPACE || kc == KeyCodes.KEY_DELETE) {
+            if (event.getSource() instanceof TextBox
+                    && "".equals(((TextBox) event.getSource()).getText())) {
+                if ((kc == KeyCodes.KEY_BACKSPACE && !after)
+                        || (kc == KeyCodes.KEY_DELETE && after)) {
+                    if (!pendingKeys.isEmpty()) {
+                        // the server has not seen the token yet
+                        pendingKeys.remove(pendingKeys.size() - 1);
+                        pendingCaptions.remove(pendingCaptions.size() - 1);
+                        updateTokens();
+                        return;
+                    }
+                    // hide the token at once, tell the server when the
+                    // user stops deleting
+                    pendingDeletes++;
+                    updateTokens();
+                    syncTimer.schedule(SYNC_DELAY_MS);
+                    return;
+                }
+            }
+        }
+
+        super.onKeyDown(event);
+
+    }
+
+    @Override
+    public void onBrowserEvent(Event event) {
+        if (event.getTypeInt() == Event.ONPASTE && enabled && !readonly
+                && separators != null && !separators.isEmpty()) {
+            String pasted = getClipboardText(event);
+            if (pasted != null && indexOfSeparator(pasted, 0) >= 0) {
+                event.preventDefault();
+                String text = tb.getText();
+                int from = tb.getCursorPos();
+                int to = Math.min(text.length(), from + tb.getSelectionLength());
+                addTokens(splitTokens(text.substring(0, from) + pasted + text.substring(to)));
+                return;
+            }
+        }
+        super.onBrowserEvent(event);
+    }
+
+    private static native String getClipboardText(Event event)
+    /*-{
+        var data = event.clipboardData || $wnd.clipboardData;
+        return data ? data.getData('text') : null;
+    }-*/;
+
+    public void setSeparators(String separators) {
+        this.separators = separators;
+    }
+
+    private int indexOfSeparator(String text, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (separators.indexOf(text.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Splits text into tokens at the separator characters, trimming them and
+     * dropping empty ones.
+     *
+     * @param text the text to split
+     * @return the tokens
+     */
+    public List<String> splitTokens(String text) {
+        List<String> result = new ArrayList<String>();
+        int start = 0;
+        while (start <= text.length()) {
+            int end = separators == null || separators.isEmpty() ? -1 : indexOfSeparator(text, start);
+            if (end < 0) {
+                end = text.length();
+            }
+            String token = text.substring(start, end).trim();
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+            start = end + 1;
+        }
+        return result;
+    }
+
+    /**
+     * Adds a token typed by the user, or several if the text contains
+     * separators; see {@link #addToken(String, String)}.
+     *
+     * @param text the typed text
+     */
+    public void addTypedToken(String text) {
+        if (separators != null && !separators.isEmpty() && indexOfSeparator(text, 0) >= 0) {
+            addTokens(splitTokens(text));
+        } else {
+            addToken("", text);
+        }
+    }
+
+    /**
+     * Shows tokens typed or pasted by the user at once, and sends them to the
+     * server right away, in one request.
+     *
+     * @param texts the texts of the tokens
+     */
+    public void addTokens(List<String> texts) {
+        flushDeletes();
+        for (String text : texts) {
+            pendingKeys.add("");
+            pendingCaptions.add(text);
+        }
+        updateTokens();
+        flush();
+        clearInput();
+    }
+
+    @Override
+    public void onBlur(BlurEvent event) {
+        flush();
+        super.onBlur(event);
+    }
+
+    /**
+     * Shows a token added by the user at once, and queues it to be sent to
+     * the server with the other tokens added in quick succession.
+     *
+     * @param key     the key of the selected suggestion, or "" for a typed
+     *                token
+     * @param caption the caption to show until the server confirms
+     */
+    public void addToken(String key, String caption) {
+        // deletions typed before must reach the server first
+        flushDeletes();
+        pendingKeys.add(key);
+        pendingCaptions.add(caption);
+        updateTokens();
+        syncTimer.schedule(SYNC_DELAY_MS);
+        clearInput();
+    }
+
+    private void clearInput() {
+        // once the combo box is done with the selection
+        Scheduler.get().scheduleDeferred(() -> {
+            currentSuggestion = null;
+            selectedOptionKey = null;
+            lastNewItemString = null;
+            setSelectedCaption(null);
+            setText("");
+        });
+    }
+
+    /**
+     * Sends the additions and deletions made so far to the server, each kind
+     * as one request.
+     */
+    public void flush() {
+        syncTimer.cancel();
+        flushDeletes();
+        flushAdditions();
+    }
+
+    private void flushAdditions() {
+        if (!pendingKeys.isEmpty()) {
+            List<String> keys = new ArrayList<String>(pendingKeys);
+            List<String> captions = new ArrayList<String>(pendingCaptions);
+            pendingKeys.clear();
+            pendingCaptions.clear();
+            unconfirmedCaptions.addAll(captions);
+            for (AddListener l : addListeners) {
+                l.onAdd(keys, captions);
+            }
+        }
+    }
+
+    /**
+     * Sends the deletions typed so far to the server, as one request.
+     */
+    public void flushDeletes() {
+        if (pendingDeletes > 0) {
+            int count = pendingDeletes;
+            pendingDeletes = 0;
+            unconfirmedDeletes += count;
+            for (DeleteListener l : listeners) {
+                l.onDelete(count);
+            }
+        }
+    }
+
+    /**
+     * Called when the server has handled deletions; tokens that were hidden
+     * but not deleted after all are shown again.
+     *
+     * @param count the number of deletions handled
+     */
+    public void confirmDeletes(int count) {
+        unconfirmedDeletes = Math.max(0, unconfirmedDeletes - count);
+        updateTokens();
+    }
+
+    /**
+     * Called when the server has handled additions; the tokens shown for them
+     * are removed, as the server now renders the accepted ones, so rejected
+     * tokens disappear.
+     *
+     * @param count the number of additions handled
+     */
+    public void confirmAdditions(int count) {
+        unconfirmedCaptions.subList(0, Math.min(count, unconfirmedCaptions.size())).clear();
+        updateTokens();
+    }
+
+    /**
+     * Gets the number of last tokens hidden because they are being deleted.
+     *
+     * @return the number of deletions not confirmed by the server
+     */
+    public int getDeletingCount() {
+        return pendingDeletes + unconfirmedDeletes;
+    }
+
+    private List<String> getAddedCaptions() {
+        List<String> added = new ArrayList<String>(unconfirmedCaptions);
+        added.addAll(pendingCaptions);
+        return added;
+    }
+
+    /*
+     * Tokens added last are deleted first on the server as well.
+     */
+    private int getDeletingRendered() {
+        return Math.max(0, getDeletingCount() - unconfirmedCaptions.size());
+    }
+
+    private void updateTokens() {
+        drawTokens();
+        placeTokenList();
+        for (DeleteListener l : listeners) {
+            l.onDeleting(tokens == null ? getDeletingRendered() : 0);
+        }
+    }
+
+    public void addListener(DeleteListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(DeleteListener l) {
+        listeners.remove(l);
+    }
+
+    public void addListener(AddListener l) {
+        addListeners.add(l);
+    }
+
+    public void removeListener(AddListener l) {
+        addListeners.remove(l);
+    }
+
+    public void setAfter(boolean after) {
+        this.after = after;
+        placeTokenList();
+    }
+
+    /**
+     * Sets the captions of the tokens drawn by this widget.
+     *
+     * @param tokens       the token captions, or <code>null</code> if the
+     *                     tokens are rendered elsewhere
+     * @param hiddenTokens the number of tokens not included in the captions
+     */
+    public void setTokens(List<String> tokens, int hiddenTokens) {
+        this.tokens = tokens == null ? null : new ArrayList<String>(tokens);
+        this.hiddenTokens = hiddenTokens;
+        drawTokens();
+        placeTokenList();
+    }
+
+    /**
+     * Sets the number of tokens not drawn by this widget.
+     *
+     * @param hiddenTokens the number of hidden tokens
+     */
+    public void setHiddenTokens(int hiddenTokens) {
+        this.hiddenTokens = hiddenTokens;
+        drawTokens();
+    }
+
+    /**
+     * Inserts tokens into the ones drawn by this widget.
+     *
+     * @param index    the index of the first inserted token
+     * @param captions the captions of the inserted tokens
+     */
+    public void insertTokens(int index, List<String> captions) {
+        if (tokens != null) {
+            tokens.addAll(index, captions);
+            drawTokens();
+        }
+    }
+
+    /**
+     * Removes tokens drawn by this widget.
+     *
+     * @param index the index of the first removed token
+     * @param count the number of removed tokens
+     */
+    public void removeTokens(int index, int count) {
+        if (tokens != null) {
+            tokens.subList(index, index + count).clear();
+            drawTokens();
+        }
+    }
+
+    /*
+     * The last tokens are deleted, i.e. the added ones first, then the
+     * hidden ones, then the drawn ones from the end.
+     */
+    private void drawTokens() {
+        List<String> added = getAddedCaptions();
+        int deleting = getDeletingCount();
+        int deletedAdded = Math.min(deleting, unconfirmedCaptions.size());
+        added = added.subList(0, added.size() - deletedAdded);
+        if (tokens == null) {
+            tokenList.setTokens(Collections.<String>emptyList(), added, 0);
+            return;
+        }
+        deleting -= deletedAdded;
+        int hidden = Math.max(0, hiddenTokens - deleting);
+        int drawn = Math.max(0, tokens.size() - (deleting - (hiddenTokens - hidden)));
+        tokenList.setTokens(tokens.subList(0, drawn), added, hidden);
+    }
+
+    public List<String> getTokens() {
+        return tokens;
+    }
+
+    private void placeTokenList() {
+        FlowPanel panel = (FlowPanel) getWidget();
+        if (tokenList.getParent() != null) {
+            panel.remove(tokenList);
+        }
+        if (tokens != null || !unconfirmedCaptions.isEmpty() || !pendingCaptions.isEmpty()) {
+            int index = panel.getWidgetIndex(tb);
+            panel.insert(tokenList, after ? index + 1 : index);
+        }
+    }
+
+    public interface DeleteListener {
+        /**
+         * Called when the last tokens should be deleted.
+         *
+         * @param count the number of tokens to delete
+         */
+        void onDelete(int count);
+
+        /**
+         * Called when the number of last token components being deleted
+         * changes, so they can be hidden until the server confirms.
+         *
+         * @param count the number of token components being deleted
+         */
+        default void onDeleting(int count) {
+        }
+    }
+
+    public interface AddListener {
+        /**
+         * Called when tokens added by the user should be sent to the server.
+         *
+         * @param keys     the keys of the selected suggestions, "" for typed
+         *                 tokens
+         * @param captions the captions of the tokens, i.e. the typed text for
+         *                 typed tokens
+         */
+        void onAdd(List<String> keys, List<String> captions);
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.github.mjjaniec.tokenfield.client;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import com.google.gwt.dom.client.Document;
+import com.google.gwt.dom.client.Element;
+import com.google.gwt.user.client.DOM;
+import com.google.gwt.user.client.Event;
+import com.google.gwt.user.client.ui.Widget;
+
+/**
+ * Draws a list of tokens as plain elements within a single widget, instead of
+ * one widget (and connector) per token.
+ */
+public class VTokenList extends Widget {
+
+    public static final String CLASSNAME = "tokenfield-tokens";
+    public static final String TOKEN_CLASSNAME = "tokenfield-token";
+
+    public static final String MORE_CLASSNAME = "tokenfield-more";
+
+    public static final String PENDING_CLASSNAME = "tokenfield-pending";
+
+    private static final String INDEX_ATTRIBUTE = "data-index";
+    private static final String MORE_ATTRIBUTE = "data-more";
+
+    /**
+     * How close (in pixels) to the end the tokens need to be scrolled to
+     * request more
+     */
+    private static final int SCROLL_THRESHOLD = 20;
+
+    private int hiddenTokens;
+
+    private boolean moreRequested;
+
+    protected List<ClickListener> listeners = new LinkedList<ClickListener>();
+
+    public VTokenList() {
+        setElement(Document.get().createDivElement());
+        setStyleName(CLASSNAME);
+        sinkEvents(Event.ONCLICK | Event.ONMOUSEDOWN | Event.ONSCROLL);
+    }
+
+    /**
+     * Draws the given tokens, followed by a "+N more" expander if some tokens
+     * are hidden.
+     *
+     * @param captions     the captions of the tokens to draw
+     * @param hiddenTokens the number of tokens not drawn
+     */
+    public void setTokens(List<String> captions, int hiddenTokens) {
+        setTokens(captions, null, hiddenTokens);
+    }
+
+    /**
+     * Draws the given tokens and the tokens being added, followed by a "+N
+     * more" expander if some tokens are hidden. Tokens being added can't be
+     * clicked.
+     *
+     * @param captions     the captions of the tokens to draw
+     * @param pending      the captions of the tokens being added, may be
+     *                     <code>null</code>
+     * @param hiddenTokens the number of tokens not drawn
+     */
+    public void setTokens(List<String> captions, List<String> pending, int hiddenTokens) {
+        this.hiddenTokens = hiddenTokens;
+        moreRequested = false;
+        Element root = getElement();
+        root.removeAllChildren();
+        if (captions == null) {
+            return;
+        }
+        Document doc = Document.get();
+        for (int i = 0; i < captions.size(); i++) {
+            Element token = doc.createSpanElement();
+            token.setClassName(TOKEN_CLASSNAME);
+            token.setAttribute(INDEX_ATTRIBUTE, String.valueOf(i));
+            token.setInnerText(captions.get(i) + " ×");
+            token.setTitle("Click to remove");
+            root.appendChild(token);
+        }
+        if (pending != null) {
+            for (String caption : pending) {
+                Element token = doc.createSpanElement();
+                token.setClassName(TOKEN_CLASSNAME + " " + PENDING_CLASSNAME);
+                token.setInnerText(caption);
+                root.appendChild(token);
+            }
+        }
+        if (hiddenTokens > 0) {
+            Element more = doc.createSpanElement();
+            more.setClassName(TOKEN_CLASSNAME + " " + MORE_CLASSNAME);
+            more.setAttribute(MORE_ATTRIBUTE, "true");
+            more.setInnerText("+" + hiddenTokens + " more");
+            more.setTitle("Click to show more");
+            root.appendChild(more);
+        }
+    }
+
+    @Override
+    public void onBrowserEvent(Event event) {
+        super.onBrowserEvent(event);
+        if (event.getTypeInt() == Event.ONSCROLL) {
+            Element root = getElement();
+            if (root.getScrollTop() + root.getClientHeight()
+                    >= root.getScrollHeight() - SCROLL_THRESHOLD) {
+                fireShowMore();
+            }
+            return;
+        }
+        Element token = findToken(DOM.eventGetTarget(event));
+        if (token == null) {
+            return;
+        }
+        if (event.getTypeInt() == Event.ONMOUSEDOWN) {
+            // keep the focus in the input
+            event.preventDefault();
+        } else if (token.hasAttribute(MORE_ATTRIBUTE)) {
+            fireShowMore();
+        } else if (event.getTypeInt() == Event.ONCLICK) {
+            int index = Integer.parseInt(token.getAttribute(INDEX_ATTRIBUTE));
+            for (ClickListener l : listeners) {
+                l.onTokenClick(index);
+            }
+        }
+    }
+
+    /*
+     * Only one request at a time; the flag is cleared when the tokens are
+     * redrawn with the server's answer.
+     */
+    private void fireShowMore() {
+        if (hiddenTokens > 0 && !moreRequested) {
+            moreRequested = true;
+            for (ClickListener l : listeners) {
+                l.onShowMore();
+            }
+        }
+    }
+
+    private Element findToken(Element target) {
+        Element root = getElement();
+        for (Element e = target; e != null && e != root; e = e.getParentElement()) {
+            if (e.hasAttribute(INDEX_ATTRIBUTE) || e.hasAttribute(MORE_ATTRIBUTE)) {
+                return e;
+            }
+        }
+        return null;
+    }
+
+    public void addListener(ClickListener l) {
+        listeners.add(l);
+    }
+
+    public void removeListener(ClickListener l) {
+        listeners.remove(l);
+    }
+
+    public interface ClickListener {
+        void onTokenClick(int index);
+
+        void onShowMore();
+    }
+}
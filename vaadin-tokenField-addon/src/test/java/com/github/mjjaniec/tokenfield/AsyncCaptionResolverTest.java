@@ -0,0 +1,177 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncCaptionResolverTest {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final List<Runnable> accessQueue = new ArrayList<>();
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    private final List<Collection<String>> calls = new ArrayList<>();
+
+    private TokenField field;
+
+    @Before
+    public void setUp() {
+        VaadinSession session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public void lock() {
+                lock.lock();
+            }
+
+            @Override
+            public void unlock() {
+                lock.unlock();
+            }
+
+            @Override
+            public String createConnectorId(ClientConnector connector) {
+                return String.valueOf(getNextConnectorId());
+            }
+
+            @Override
+            public Future<Void> access(Runnable runnable) {
+                accessQueue.add(runnable);
+                return null;
+            }
+        };
+        UI ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+        };
+        session.lock();
+        ui.setSession(session);
+        field = new TokenField();
+        ui.setContent(field);
+        field.setCaptionExecutor(tasks::add);
+        field.setTokenCaptionProvider(tokenIds -> {
+            calls.add(new ArrayList<>(tokenIds));
+            Map<String, String> captions = new HashMap<>();
+            for (String tokenId : tokenIds) {
+                captions.put(tokenId, "Name <" + tokenId + ">");
+            }
+            return captions;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        while (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Runs the executor tasks without the session lock, then the UI.access
+     * tasks they scheduled.
+     */
+    private void resolve() {
+        lock.unlock();
+        tasks.forEach(Runnable::run);
+        tasks.clear();
+        List<Runnable> access = new ArrayList<>(accessQueue);
+        accessQueue.clear();
+        access.forEach(Runnable::run);
+        lock.lock();
+    }
+
+    @Test
+    public void tokensShowIdsUntilCaptionsAreResolved() {
+        field.addTokens(Arrays.asList("a", "b", "c"));
+
+        assertEquals("a ×", field.buttons.get("a").getCaption());
+        assertEquals(3, field.getPendingCaptionCount());
+        assertEquals(1, tasks.size());
+        assertTrue(calls.isEmpty());
+
+        resolve();
+
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c")), calls);
+        assertEquals("Name <a> ×", field.buttons.get("a").getCaption());
+        assertEquals("Name <c> ×", field.buttons.get("c").getCaption());
+        assertEquals(0, field.getPendingCaptionCount());
+    }
+
+    @Test
+    public void resultsAreAppliedInOneAccess() {
+        field.addToken("a");
+        field.addToken("b");
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        assertEquals(2, tasks.size());
+
+        lock.unlock();
+        tasks.forEach(Runnable::run);
+        lock.lock();
+
+        assertEquals(1, accessQueue.size());
+        tasks.clear();
+        resolve();
+        assertEquals(Arrays.asList("Name <a>", "Name <b>"), field.cb.getTokenCaptions());
+    }
+
+    @Test
+    public void removedTokensCancelPendingCaptions() {
+        field.addTokens(Arrays.asList("a", "b"));
+        field.addToken("c");
+        field.removeToken("a");
+        field.removeToken("b");
+        field.removeToken("c");
+
+        assertEquals(0, field.getPendingCaptionCount());
+        resolve();
+
+        assertTrue(calls.isEmpty());
+        assertTrue(accessQueue.isEmpty());
+    }
+
+    @Test
+    public void detachedUiDoesNotStopLaterResults() {
+        AsyncCaptionResolver resolver = new AsyncCaptionResolver(Runnable::run,
+                tokenIds -> Collections.singletonMap(tokenIds.iterator().next(), "Name"));
+        Map<String, String> applied = new HashMap<>();
+        UI detached = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+        };
+
+        resolver.getCaption("a");
+        resolver.submit(detached, applied::putAll);
+        resolver.getCaption("b");
+        resolver.submit(field.getUI(), applied::putAll);
+
+        assertEquals(1, accessQueue.size());
+        accessQueue.get(0).run();
+        assertEquals(2, applied.size());
+        assertEquals(0, resolver.getPendingCount());
+    }
+}
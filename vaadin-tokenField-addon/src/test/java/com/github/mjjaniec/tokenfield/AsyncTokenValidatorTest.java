@@ -0,0 +1,202 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
+import com.vaadin.data.HasValue;
+import com.vaadin.server.ServerRpcManager;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.UI;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncTokenValidatorTest {
+
+    private final TestUI ui = new TestUI();
+
+    private final Map<String, CompletableFuture<Boolean>> checks = new HashMap<>();
+
+    private TokenField field;
+
+    @Before
+    public void setUp() {
+        field = new TokenField();
+        ui.setContent(field);
+        field.setAsyncTokenValidator(tokenId -> {
+            CompletableFuture<Boolean> check = new CompletableFuture<>();
+            checks.put(tokenId, check);
+            return check;
+        });
+    }
+
+    @After
+    public void tearDown() {
+        ui.release();
+    }
+
+    private List<String> pendingButtonCaptions() {
+        return pendingButtonCaptions(field);
+    }
+
+    private static List<String> pendingButtonCaptions(TokenField field) {
+        List<String> captions = new ArrayList<>();
+        for (Component c : field.getLayout()) {
+            if (c.getStyleName().contains(TokenField.STYLE_PENDING)) {
+                captions.add(c.getCaption());
+            }
+        }
+        return captions;
+    }
+
+    @Test
+    public void verdictsAreAppliedInOneBatch() {
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).addTokens(
+                Arrays.asList("", "", ""), Arrays.asList("a", "b", "c"));
+
+        assertTrue(field.getValue().isEmpty());
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(field.getPendingTokens()));
+        assertEquals(Arrays.asList("a ×", "b ×", "c ×"), pendingButtonCaptions());
+
+        checks.get("c").complete(true);
+        checks.get("b").complete(false);
+        checks.get("a").complete(true);
+        assertEquals(1, ui.accessQueue.size());
+        ui.runAccessTasks();
+
+        assertEquals(Arrays.asList("c", "a"), new ArrayList<>(field.getValue()));
+        assertEquals(1, events.size());
+        assertTrue(field.getPendingTokens().isEmpty());
+        assertTrue(pendingButtonCaptions().isEmpty());
+    }
+
+    @Test
+    public void removingPendingTokenCancelsCheck() {
+        field.inputTokens(Arrays.asList("a", "b"));
+        field.removeToken("a");
+
+        assertTrue(checks.get("a").isCancelled());
+        assertEquals(Arrays.asList("b ×"), pendingButtonCaptions());
+
+        checks.get("b").complete(true);
+        ui.runAccessTasks();
+        assertEquals(Arrays.asList("b"), new ArrayList<>(field.getValue()));
+    }
+
+    @Test
+    public void failedCheckRejectsToken() {
+        field.inputTokens(Arrays.asList("a"));
+        checks.get("a").completeExceptionally(new IllegalStateException("directory down"));
+        ui.runAccessTasks();
+
+        assertTrue(field.getValue().isEmpty());
+        assertTrue(pendingButtonCaptions().isEmpty());
+    }
+
+    @Test
+    public void detachedFieldChecksSynchronously() {
+        TokenField detached = new TokenField();
+        detached.setAsyncTokenValidator(tokenId -> CompletableFuture.completedFuture(!tokenId.startsWith("#")));
+
+        detached.inputTokens(Arrays.asList("a", "#b"));
+
+        assertEquals(Arrays.asList("a"), new ArrayList<>(detached.getValue()));
+    }
+
+    @Test
+    public void tokensAddedDuringChecksAreInsertedInPlace() {
+        for (TokenField.InsertPosition position : TokenField.InsertPosition.values()) {
+            TokenField field = new TokenField();
+            field.setTokenInsertPosition(position);
+            ui.setContent(field);
+            field.setAsyncTokenValidator(tokenId -> {
+                CompletableFuture<Boolean> check = new CompletableFuture<>();
+                checks.put(tokenId, check);
+                return check;
+            });
+            InMemoryTokenFieldMetrics metrics = new InMemoryTokenFieldMetrics();
+            field.setMetrics(metrics);
+
+            field.addToken("a");
+            field.inputTokens(Arrays.asList("p", "q"));
+            field.addTokens(Arrays.asList("b", "c"));
+            field.removeToken("q");
+            field.addToken("d");
+
+            assertEquals(0, metrics.getCount(InMemoryTokenFieldMetrics.REBUILDS));
+            List<String> captions = new ArrayList<>();
+            for (Component c : field.getLayout()) {
+                captions.add(c == field.cb ? "input" : c.getCaption());
+            }
+            assertEquals(position == TokenField.InsertPosition.BEFORE
+                            ? Arrays.asList("a ×", "b ×", "c ×", "d ×", "p ×", "input")
+                            : Arrays.asList("input", "p ×", "a ×", "b ×", "c ×", "d ×"),
+                    captions);
+        }
+    }
+
+    @Test
+    public void checksInProgressAreNotSerialized() throws Exception {
+        TokenField original = new TokenField();
+        ui.setContent(original);
+        original.setAsyncTokenValidator(tokenId -> new CompletableFuture<>());
+        original.addToken("x");
+        original.inputTokens(Arrays.asList("a"));
+        assertEquals(Arrays.asList("a ×"), pendingButtonCaptions(original));
+        ui.setContent(null);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(original);
+        }
+        TokenField copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (TokenField) in.readObject();
+        }
+
+        assertTrue(copy.getPendingTokens().isEmpty());
+        assertTrue(pendingButtonCaptions(copy).isEmpty());
+        assertEquals(Arrays.asList("x"), new ArrayList<>(copy.getValue()));
+    }
+
+    @Test
+    public void detachedUiDoesNotStopLaterVerdicts() {
+        AsyncTokenAcceptor acceptor = new AsyncTokenAcceptor(tokenId -> {
+            CompletableFuture<Boolean> check = new CompletableFuture<>();
+            checks.put(tokenId, check);
+            return check;
+        });
+        List<String> applied = new ArrayList<>();
+        UI detached = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+        };
+
+        acceptor.submit("a", true, detached, done -> done.forEach(c -> applied.add(c.tokenId)));
+        checks.get("a").complete(true);
+        acceptor.submit("b", true, ui, done -> done.forEach(c -> applied.add(c.tokenId)));
+        checks.get("b").complete(true);
+
+        assertEquals(1, ui.accessQueue.size());
+        ui.runAccessTasks();
+        assertEquals(Arrays.asList("a", "b"), applied);
+        assertTrue(acceptor.getPendingTokens().isEmpty());
+    }
+}
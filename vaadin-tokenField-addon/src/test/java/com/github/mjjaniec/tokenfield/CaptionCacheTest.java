@@ -0,0 +1,100 @@
+package com.github.mjjaniec.tokenfield;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class CaptionCacheTest {
+
+    /**
+     * Resolves "Name &lt;id&gt;" captions, recording the calls.
+     */
+    private static class CountingProvider implements TokenCaptionProvider {
+        final List<Integer> calls = new ArrayList<>();
+
+        @Override
+        public Map<String, String> getCaptions(Collection<String> tokenIds) {
+            calls.add(tokenIds.size());
+            Map<String, String> captions = new HashMap<>();
+            for (String tokenId : tokenIds) {
+                captions.put(tokenId, "Name <" + tokenId + ">");
+            }
+            return captions;
+        }
+    }
+
+    private static List<String> tokens(int count) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tokens.add("t" + i);
+        }
+        return tokens;
+    }
+
+    @Test
+    public void batchResolvesCaptionsInOneCall() {
+        CountingProvider provider = new CountingProvider();
+        TokenField field = new TokenField();
+        field.setTokenCaptionProvider(provider);
+
+        field.addTokens(tokens(500));
+
+        assertEquals(Arrays.asList(500), provider.calls);
+        assertEquals("Name <t42> ×", field.buttons.get("t42").getCaption());
+    }
+
+    @Test
+    public void onlyRenderedTokensAreResolved() {
+        CountingProvider provider = new CountingProvider();
+        TokenField field = new TokenField();
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        field.setVisibleTokenLimit(10);
+        field.setTokenCaptionProvider(provider);
+
+        field.setValue(new LinkedHashSet<>(tokens(500)));
+        field.showMoreTokens();
+
+        assertEquals(Arrays.asList(10, 10), provider.calls);
+        assertEquals("Name <t19>", field.cb.getTokenCaptions().get(19));
+    }
+
+    @Test
+    public void fieldsShareCachedCaptions() {
+        CountingProvider source = new CountingProvider();
+        CaptionCache cache = new CaptionCache(1000);
+        TokenField first = new TokenField();
+        TokenField second = new TokenField();
+        first.setTokenCaptionProvider(new CachingCaptionProvider(cache, "contacts", source));
+        second.setTokenCaptionProvider(new CachingCaptionProvider(cache, "contacts", source));
+
+        first.addTokens(tokens(100));
+        second.addTokens(tokens(150));
+
+        assertEquals(Arrays.asList(100, 50), source.calls);
+        assertEquals(100, cache.getHitCount());
+        assertEquals("Name <t120> ×", second.buttons.get("t120").getCaption());
+
+        cache.invalidate("contacts", "t1");
+        first.setTokenCaptionProvider(new CachingCaptionProvider(cache, "contacts", source));
+        assertEquals(Arrays.asList(100, 50, 1), source.calls);
+    }
+
+    @Test
+    public void cacheIsBounded() {
+        CountingProvider source = new CountingProvider();
+        CaptionCache cache = new CaptionCache(10);
+        TokenCaptionProvider provider = new CachingCaptionProvider(cache, "contacts", source);
+
+        provider.getCaptions(tokens(100));
+
+        assertEquals(10, cache.size());
+    }
+}
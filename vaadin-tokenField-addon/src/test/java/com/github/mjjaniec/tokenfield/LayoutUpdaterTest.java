@@ -0,0 +1,89 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.Button;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
+import com.vaadin.ui.GridLayout;
+import com.vaadin.ui.Layout;
+import com.vaadin.ui.VerticalLayout;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class LayoutUpdaterTest {
+
+    private static List<Component> components(int count) {
+        List<Component> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add(new Button(String.valueOf(i)));
+        }
+        return result;
+    }
+
+    private static List<Component> children(Layout layout) {
+        List<Component> result = new ArrayList<>();
+        layout.forEach(result::add);
+        return result;
+    }
+
+    @Test
+    public void fillsEmptyLayout() {
+        CssLayout layout = new CssLayout();
+        List<Component> desired = components(3);
+
+        assertEquals(3, LayoutUpdater.update(layout, desired));
+        assertEquals(desired, children(layout));
+    }
+
+    @Test
+    public void addsOnlyMissingComponent() {
+        List<Component> tokens = components(100);
+        CssLayout layout = new CssLayout();
+        tokens.forEach(layout::addComponent);
+
+        List<Component> desired = new ArrayList<>(tokens);
+        Button input = new Button("input");
+        desired.add(input);
+
+        assertEquals(1, LayoutUpdater.update(layout, desired));
+        assertEquals(desired, children(layout));
+    }
+
+    @Test
+    public void movesOnlyDisplacedComponent() {
+        List<Component> desired = components(50);
+        VerticalLayout layout = new VerticalLayout();
+        layout.addComponents(desired.subList(1, 50).toArray(new Component[0]));
+        layout.addComponent(desired.get(0));
+
+        // one remove and one insert
+        assertEquals(2, LayoutUpdater.update(layout, desired));
+        assertEquals(desired, children(layout));
+    }
+
+    @Test
+    public void removesAndReorders() {
+        List<Component> c = components(5);
+        CssLayout layout = new CssLayout();
+        c.forEach(layout::addComponent);
+
+        List<Component> desired = Arrays.asList(c.get(3), c.get(0), c.get(2));
+        LayoutUpdater.update(layout, desired);
+        assertEquals(desired, children(layout));
+        assertEquals(0, LayoutUpdater.update(layout, desired));
+    }
+
+    @Test
+    public void rebuildsOtherLayoutsOnlyWhenChanged() {
+        List<Component> desired = components(4);
+        GridLayout layout = new GridLayout(2, 2);
+
+        LayoutUpdater.update(layout, desired);
+        assertEquals(desired, children(layout));
+        assertEquals(0, LayoutUpdater.update(layout, desired));
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.mjjaniec.tokenfield;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PersistentTokenSetTest {
+
+    @Test
+    public void keepsInsertionOrder() {
+        PersistentTokenSet set = PersistentTokenSet.of(Arrays.asList("c", "a", "b", "a"));
+
+        assertEquals(Arrays.asList("c", "a", "b"), new ArrayList<>(set));
+        assertEquals(Arrays.asList("c", "b"), new ArrayList<>(set.without("a")));
+        assertEquals(Arrays.asList("c", "a", "b", "d"), new ArrayList<>(set.with("d")));
+        assertSame(set, set.with("a"));
+        assertSame(set, set.without("x"));
+    }
+
+    @Test
+    public void versionsAreIndependent() {
+        PersistentTokenSet first = PersistentTokenSet.of(Arrays.asList("a", "b", "c"));
+        PersistentTokenSet second = first.without("b").with("d");
+
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(first));
+        assertEquals(Arrays.asList("a", "c", "d"), new ArrayList<>(second));
+        assertTrue(first.contains("b"));
+        assertFalse(second.contains("b"));
+    }
+
+    @Test
+    public void equalHashesCollide() {
+        // "Aa" and "BB" have the same hash code
+        PersistentTokenSet set = PersistentTokenSet.of(Arrays.asList("Aa", "BB", "AaAa", "BBBB", "AaBB"));
+
+        assertEquals(5, set.size());
+        assertEquals(Arrays.asList("Aa", "AaAa", "BBBB", "AaBB"), new ArrayList<>(set.without("BB")));
+        assertEquals(Arrays.asList("BB", "AaAa"), new ArrayList<>(set.without("Aa").without("AaBB").without("BBBB")));
+    }
+
+    @Test
+    public void behavesLikeLinkedHashSet() {
+        Random random = new Random(7);
+        Set<String> expected = new LinkedHashSet<>();
+        PersistentTokenSet set = PersistentTokenSet.EMPTY;
+        for (int i = 0; i < 20000; i++) {
+            String token = "t" + random.nextInt(3000);
+            if (random.nextInt(3) == 0) {
+                expected.remove(token);
+                set = set.without(token);
+            } else {
+                expected.add(token);
+                set = set.with(token);
+            }
+        }
+
+        assertEquals(expected.size(), set.size());
+        assertEquals(new ArrayList<>(expected), new ArrayList<>(set));
+        List<String> ordered = new ArrayList<>(expected);
+        for (int i = 0; i < ordered.size(); i++) {
+            assertEquals(ordered.get(i), set.get(i));
+            assertEquals(i, set.indexOf(ordered.get(i)));
+        }
+        for (int i = 0; i < 3000; i++) {
+            assertEquals(expected.contains("t" + i), set.contains("t" + i));
+        }
+    }
+
+    @Test
+    public void removedTokensAreCompacted() {
+        PersistentTokenSet set = PersistentTokenSet.EMPTY;
+        for (int i = 0; i < 100000; i++) {
+            set = set.with("t" + i).without("t" + (i - 1));
+        }
+
+        assertEquals(Arrays.asList("t99999"), new ArrayList<>(set));
+        assertEquals(0, set.indexOf("t99999"));
+        assertEquals(-1, set.indexOf("t5"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void isImmutable() {
+        PersistentTokenSet.of(Arrays.asList("a")).add("b");
+    }
+
+    @Test
+    public void nullTokensAreRejectedUpFront() {
+        PersistentTokenSet set = PersistentTokenSet.of(Arrays.asList("a"));
+        try {
+            set.with(null);
+            fail();
+        } catch (NullPointerException e) {
+            assertEquals("token", e.getMessage());
+        }
+        assertSame(set, set.without(null));
+        assertFalse(set.contains(null));
+        assertEquals(-1, set.indexOf(null));
+    }
+
+    @Test
+    public void serializesTokensOnly() throws Exception {
+        PersistentTokenSet set = PersistentTokenSet.of(Arrays.asList("b", "a", "c"));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(set);
+        }
+        Object copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = in.readObject();
+        }
+
+        assertTrue(copy instanceof PersistentTokenSet);
+        assertEquals(Arrays.asList("b", "a", "c"), new ArrayList<>((PersistentTokenSet) copy));
+    }
+}
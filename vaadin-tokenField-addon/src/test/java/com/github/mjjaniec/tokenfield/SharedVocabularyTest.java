@@ -0,0 +1,85 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.Query;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class SharedVocabularyTest {
+
+    @Test
+    public void tokensRememberedInOneFieldAreSuggestedInOthers() {
+        SharedVocabulary vocabulary = new SharedVocabulary(Arrays.asList("alpha", "beta", "alpha"));
+        TokenField first = new TokenField();
+        TokenField second = new TokenField();
+        first.setVocabulary(vocabulary);
+        second.setVocabulary(vocabulary);
+
+        first.rememberToken("Alps");
+
+        assertEquals(3, vocabulary.size());
+        VocabularyDataProvider provider = (VocabularyDataProvider) second.getDataProvider();
+        assertSame(vocabulary, provider.getVocabulary());
+        assertEquals(Arrays.asList("alpha", "Alps"),
+                provider.fetch(new Query<>(0, 10, null, null, "al")).collect(Collectors.toList()));
+    }
+
+    @Test
+    public void concurrentWritesAreAllKept() throws Exception {
+        SharedVocabulary vocabulary = new SharedVocabulary();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    vocabulary.add("token" + i);
+                    vocabulary.fetch("token1", 0, 10);
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+
+        assertEquals(2000, vocabulary.size());
+        assertEquals(2000, vocabulary.count(""));
+        assertTrue(vocabulary.contains("token1999"));
+    }
+
+    @Test
+    public void pagesAreMergedInOrder() {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            words.add(Integer.toString(i * 7919 % 1000, 7) + (i % 3 == 0 ? "X" : "x"));
+        }
+        SharedVocabulary vocabulary = new SharedVocabulary(words.subList(0, 500));
+        words.subList(500, 1000).forEach(vocabulary::add);
+        TreeSet<String> expected = new TreeSet<>(
+                Comparator.<String, String>comparing(s -> s.toLowerCase(Locale.ROOT)).thenComparing(s -> s));
+        expected.addAll(words);
+
+        for (String prefix : Arrays.asList("", "1", "25", "6x")) {
+            List<String> all = expected.stream()
+                    .filter(s -> s.toLowerCase(Locale.ROOT).startsWith(prefix.toLowerCase(Locale.ROOT)))
+                    .collect(Collectors.toList());
+            assertEquals(all.size(), vocabulary.count(prefix));
+            assertEquals(all, vocabulary.fetch(prefix, 0, Integer.MAX_VALUE));
+            int offset = all.size() / 2;
+            assertEquals(all.subList(offset, Math.min(all.size(), offset + 10)), vocabulary.fetch(prefix, offset, 10));
+        }
+    }
+}
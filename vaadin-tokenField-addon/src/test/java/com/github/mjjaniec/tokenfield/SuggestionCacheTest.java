@@ -0,0 +1,158 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.google.common.base.Ticker;
+import com.vaadin.data.provider.Query;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+
+public class SuggestionCacheTest {
+
+    private static class CountingIndex extends TokenIndexDataProvider {
+        final AtomicInteger queries = new AtomicInteger();
+
+        CountingIndex(String... tokens) {
+            super(Arrays.asList(tokens));
+        }
+
+        @Override
+        public int size(Query<String, String> query) {
+            queries.incrementAndGet();
+            return super.size(query);
+        }
+    }
+
+    private static List<String> fetch(CachingDataProvider provider, String filter) {
+        return provider.fetch(new Query<>(0, 10, null, null, filter)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void queriesAreSharedByVocabularyId() {
+        SuggestionCache cache = new SuggestionCache(100, 1, TimeUnit.MINUTES);
+        CountingIndex index = new CountingIndex("alpha", "beta");
+        CachingDataProvider first = new CachingDataProvider(cache, "greek", index);
+        CachingDataProvider second = new CachingDataProvider(cache, "greek", index);
+
+        assertEquals(1, first.size(new Query<>("al")));
+        assertEquals(1, second.size(new Query<>("al")));
+        assertEquals(Arrays.asList("alpha"), fetch(second, "al"));
+        assertEquals(Arrays.asList("alpha"), fetch(first, "al"));
+
+        assertEquals(1, index.queries.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+
+        new CachingDataProvider(cache, "other", index).size(new Query<>("al"));
+        assertEquals(2, index.queries.get());
+    }
+
+    @Test
+    public void newTokensEvictOnlyMatchingQueries() {
+        SuggestionCache cache = new SuggestionCache(100, 1, TimeUnit.MINUTES);
+        CountingIndex index = new CountingIndex("alpha", "beta");
+        CachingDataProvider provider = new CachingDataProvider(cache, "greek", index);
+        provider.size(new Query<>("al"));
+        provider.size(new Query<>("be"));
+        provider.size(new Query<>(""));
+
+        provider.rememberToken("alps");
+
+        assertEquals(2, provider.size(new Query<>("al")));
+        assertEquals(3, provider.size(new Query<>("")));
+        assertEquals(1, provider.size(new Query<>("be")));
+        assertEquals(5, index.queries.get());
+        assertEquals(Arrays.asList("alpha", "alps"), fetch(provider, "AL"));
+    }
+
+    @Test
+    public void newTokensCheckOnlyTheFiltersOfTheirVocabulary() {
+        SuggestionCache cache = new SuggestionCache(100, 1, TimeUnit.MINUTES);
+        CountingIndex index = new CountingIndex("alpha", "beta");
+        CachingDataProvider greek = new CachingDataProvider(cache, "greek", index);
+        CachingDataProvider other = new CachingDataProvider(cache, "other", index);
+        greek.size(new Query<>("al"));
+        fetch(greek, "al");
+        other.size(new Query<>("al"));
+        other.size(new Query<>("be"));
+
+        List<String> tested = new ArrayList<>();
+        cache.invalidate("greek", "alps", (token, filter) -> tested.add(filter) && token.startsWith(filter));
+
+        assertEquals(Arrays.asList("al"), tested);
+        assertEquals(2, cache.size());
+        cache.invalidateAll("other");
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void tokensAddedDuringALoadAreNotLost() throws Exception {
+        SuggestionCache cache = new SuggestionCache(100, 1, TimeUnit.MINUTES);
+        CountDownLatch counted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountingIndex index = new CountingIndex("alpha", "beta") {
+            @Override
+            public int size(Query<String, String> query) {
+                int size = super.size(query);
+                if (queries.get() == 1) {
+                    counted.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                return size;
+            }
+        };
+        CachingDataProvider provider = new CachingDataProvider(cache, "greek", index);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> stale = executor.submit(() -> provider.size(new Query<>("al")));
+            counted.await();
+            provider.rememberToken("alps");
+            release.countDown();
+            assertEquals(1, (int) stale.get());
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(2, provider.size(new Query<>("al")));
+        assertEquals(Arrays.asList("alpha", "alps"), fetch(provider, "al"));
+    }
+
+    @Test
+    public void entriesExpireAndAreBounded() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        SuggestionCache cache = new SuggestionCache(2, 10, TimeUnit.SECONDS, ticker);
+        CountingIndex index = new CountingIndex("alpha", "beta");
+        CachingDataProvider provider = new CachingDataProvider(cache, "greek", index);
+
+        provider.size(new Query<>("a"));
+        nanos.addAndGet(TimeUnit.SECONDS.toNanos(11));
+        provider.size(new Query<>("a"));
+        assertEquals(2, index.queries.get());
+
+        provider.size(new Query<>("b"));
+        provider.size(new Query<>("c"));
+        assertEquals(2, cache.size());
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.ui.UI;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A UI in a session without a service, locked by the creating thread. Tasks
+ * passed to {@link #access(Runnable)} are queued until
+ * {@link #runAccessTasks()}.
+ */
+class TestUI extends UI {
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    final List<Runnable> accessQueue = new ArrayList<>();
+
+    TestUI() {
+        VaadinSession session = new VaadinSession(null) {
+            @Override
+            public Lock getLockInstance() {
+                return lock;
+            }
+
+            @Override
+            public void lock() {
+                lock.lock();
+            }
+
+            @Override
+            public void unlock() {
+                lock.unlock();
+            }
+
+            @Override
+            public String createConnectorId(ClientConnector connector) {
+                return String.valueOf(getNextConnectorId());
+            }
+
+            @Override
+            public Future<Void> access(Runnable runnable) {
+                accessQueue.add(runnable);
+                return null;
+            }
+        };
+        session.lock();
+        setSession(session);
+    }
+
+    @Override
+    protected void init(VaadinRequest request) {
+    }
+
+    /**
+     * Runs the queued access tasks, as a background thread would.
+     */
+    void runAccessTasks() {
+        List<Runnable> tasks = new ArrayList<>(accessQueue);
+        accessQueue.clear();
+        lock.unlock();
+        try {
+            tasks.forEach(Runnable::run);
+        } finally {
+            lock.lock();
+        }
+    }
+
+    void release() {
+        while (lock.isHeldByCurrentThread()) {
+            lock.unlock();
+        }
+    }
+}
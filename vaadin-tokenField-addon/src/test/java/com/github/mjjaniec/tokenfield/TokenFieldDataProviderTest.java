@@ -0,0 +1,104 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.ListDataProvider;
+import com.vaadin.data.provider.Query;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenFieldDataProviderTest {
+
+    @Test
+    public void backendIsQueriedByFilterAndPage() {
+        List<String> queries = new ArrayList<>();
+        TokenField field = new TokenField();
+        field.setDataProvider((filter, offset, limit) -> {
+            queries.add(filter + ":" + offset + ":" + limit);
+            return IntStream.range(offset, offset + limit).mapToObj(i -> filter + i);
+        }, filter -> 1000);
+
+        @SuppressWarnings("unchecked")
+        DataProvider<String, String> provider = (DataProvider<String, String>) field.getDataProvider();
+        List<String> page = provider.fetch(new Query<>(20, 10, null, null, "ab"))
+                .collect(Collectors.toList());
+
+        assertEquals(10, page.size());
+        assertEquals("ab20", page.get(0));
+        assertEquals(Arrays.asList("ab:20:10"), queries);
+    }
+
+    @Test
+    public void newTokensGoToSink() {
+        List<String> remembered = new ArrayList<>();
+        TokenField field = new TokenField();
+        field.setDataProvider((filter, offset, limit) -> IntStream.range(0, 0).mapToObj(String::valueOf),
+                filter -> 0);
+        field.setTokenSink(remembered::add);
+
+        field.rememberToken("new");
+
+        assertEquals(Arrays.asList("new"), remembered);
+    }
+
+    @Test
+    public void newTokensGoToListDataProvider() {
+        ListDataProvider<String> provider = new ListDataProvider<>(new ArrayList<>());
+        TokenField field = new TokenField();
+        field.setDataProvider(provider);
+
+        field.rememberToken("new");
+
+        assertEquals(Arrays.asList("new"), new ArrayList<>(field.getTokenIds()));
+    }
+
+    @Test
+    public void rememberingIsDeduplicatedWithoutProviderWideRefresh() {
+        ListDataProvider<String> provider = new ListDataProvider<>(new ArrayList<>(Arrays.asList("old")));
+        List<Object> events = new ArrayList<>();
+        provider.addDataProviderListener(events::add);
+        TokenField field = new TokenField();
+        field.setDataProvider(provider);
+
+        field.rememberToken("new");
+        field.rememberToken("new");
+        field.rememberToken("old");
+        provider.getItems().add("external");
+        field.rememberToken("external");
+
+        assertEquals(Arrays.asList("old", "new", "external"), new ArrayList<>(provider.getItems()));
+        assertTrue(events.isEmpty());
+    }
+
+    @Test
+    public void filteringModeMatchesListCaptions() {
+        TokenField field = new TokenField();
+        assertEquals(TokenField.FilteringMode.CONTAINS, field.getFilteringMode());
+
+        assertTrue(TokenField.captionFilter(TokenField.FilteringMode.CONTAINS).test("Update", "DAT"));
+        assertFalse(TokenField.captionFilter(TokenField.FilteringMode.STARTS_WITH).test("Update", "dat"));
+        assertTrue(TokenField.captionFilter(TokenField.FilteringMode.STARTS_WITH).test("database", "DAT"));
+        assertTrue(TokenField.captionFilter(TokenField.FilteringMode.FUZZY).test("database", "datbase"));
+        assertFalse(TokenField.captionFilter(TokenField.FilteringMode.FUZZY).test("database", "dtbse"));
+    }
+
+    @Test
+    public void filteringModeAppliesToTokenIndex() {
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(Arrays.asList("a"));
+        TokenField field = new TokenField();
+        field.setDataProvider(provider);
+
+        field.setFilteringMode(TokenField.FilteringMode.FUZZY);
+
+        assertEquals(TokenField.FilteringMode.FUZZY, provider.getFilteringMode());
+        assertEquals(TokenField.FilteringMode.FUZZY, field.getFilteringMode());
+    }
+}
@@ -0,0 +1,104 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
+import com.vaadin.data.provider.ListDataProvider;
+import com.vaadin.server.ServerRpcManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TokenFieldMetricsTest {
+
+    private final InMemoryTokenFieldMetrics metrics = new InMemoryTokenFieldMetrics();
+
+    @Test
+    public void noMetricsByDefault() {
+        TokenField field = new TokenField();
+        assertSame(TokenFieldMetrics.NONE, field.getMetrics());
+
+        field.setMetrics(metrics);
+        field.setMetrics(null);
+
+        assertSame(TokenFieldMetrics.NONE, field.getMetrics());
+    }
+
+    @Test
+    public void batchesAreCountedOnce() {
+        TokenField field = new TokenField();
+        field.setMetrics(metrics);
+
+        field.addTokens(Arrays.asList("a", "b", "c"));
+        field.setValue(new LinkedHashSet<>(Arrays.asList("c", "d")));
+        field.removeToken("c");
+
+        assertEquals(4, metrics.getCount(InMemoryTokenFieldMetrics.TOKENS_ADDED));
+        assertEquals(3, metrics.getCount(InMemoryTokenFieldMetrics.TOKENS_REMOVED));
+        InMemoryTokenFieldMetrics.Distribution batches = metrics.getDistribution(InMemoryTokenFieldMetrics.BATCH_SIZE);
+        assertEquals(3, batches.getCount());
+        assertEquals(3, batches.getMax());
+    }
+
+    @Test
+    public void layoutOperationsAreCounted() {
+        TokenField field = new TokenField();
+        field.setMetrics(metrics);
+
+        field.addTokens(Arrays.asList("a", "b"));
+        field.removeToken("a");
+
+        assertEquals(0, metrics.getCount(InMemoryTokenFieldMetrics.REBUILDS));
+        assertEquals(3, metrics.getCount(InMemoryTokenFieldMetrics.LAYOUT_OPERATIONS));
+
+        field.setTokenInsertPosition(TokenField.InsertPosition.AFTER);
+
+        assertEquals(1, metrics.getCount(InMemoryTokenFieldMetrics.REBUILDS));
+        // the input moves in front of the button
+        assertEquals(5, metrics.getCount(InMemoryTokenFieldMetrics.LAYOUT_OPERATIONS));
+    }
+
+    @Test
+    public void rpcCallsAreCountedByMethod() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b", "c"));
+        field.setMetrics(metrics);
+        TokenFieldServerRpc rpc = ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class);
+
+        rpc.addTokens(Collections.singletonList(""), Collections.singletonList("d"));
+        rpc.deleteToken();
+        rpc.deleteTokens(2);
+
+        assertEquals(3, metrics.getCount(InMemoryTokenFieldMetrics.RPC_CALLS));
+        assertEquals(1, metrics.getCount(InMemoryTokenFieldMetrics.RPC_CALLS + ".deleteToken"));
+        assertEquals(Arrays.asList("a"), new ArrayList<>(field.getValue()));
+    }
+
+    @Test
+    public void suggestionQueriesAreTimed() {
+        TokenField field = new TokenField();
+        field.setDataProvider(new ListDataProvider<>(new ArrayList<>(Arrays.asList("alpha", "beta"))));
+        field.setMetrics(metrics);
+
+        field.cb.getDataCommunicator().beforeClientResponse(true);
+
+        // the count and the first page
+        assertEquals(2, metrics.getDistribution(InMemoryTokenFieldMetrics.SUGGESTION_QUERIES).getCount());
+    }
+
+    @Test
+    public void captionResolutionIsTimed() {
+        TokenField field = new TokenField();
+        field.setMetrics(metrics);
+        field.setTokenCaptionProvider(TokenCaptionProvider.of(tokenId -> "Name <" + tokenId + ">"));
+
+        field.addTokens(Arrays.asList("a", "b", "c"));
+
+        assertEquals(3, metrics.getCount(InMemoryTokenFieldMetrics.CAPTIONS_RESOLVED));
+        assertEquals(1, metrics.getDistribution(InMemoryTokenFieldMetrics.CAPTION_RESOLUTION).getCount());
+    }
+}
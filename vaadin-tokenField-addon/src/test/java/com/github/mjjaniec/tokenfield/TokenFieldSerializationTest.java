@@ -0,0 +1,105 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.Button;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenFieldSerializationTest {
+
+    private static byte[] serialize(Object o) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(o);
+        }
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (T) in.readObject();
+        }
+    }
+
+    private static List<String> tokens(int count) {
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tokens.add("token" + i);
+        }
+        return tokens;
+    }
+
+    private static TokenField field(TokenField.RenderMode renderMode, int tokens) {
+        TokenField field = new TokenField();
+        field.setRenderMode(renderMode);
+        field.addTokens(tokens(tokens));
+        return field;
+    }
+
+    /*
+     * The bytes a field takes per token, apart from the class descriptors
+     * written once.
+     */
+    private static int bytesPerToken(TokenField.RenderMode renderMode) throws IOException {
+        int empty = serialize(field(renderMode, 0)).length;
+        return (serialize(field(renderMode, 1000)).length - empty) / 1000;
+    }
+
+    @Test
+    public void tokensAndButtonsAreRestored() throws Exception {
+        TokenField field = field(TokenField.RenderMode.BUTTONS, 3);
+
+        TokenField copy = deserialize(serialize(field));
+
+        assertEquals(tokens(3), new ArrayList<>(copy.getValue()));
+        assertEquals(tokens(3), new ArrayList<>(copy.buttons.keySet()));
+        Button button = copy.buttons.get("token1");
+        assertSame(copy.getLayout(), button.getParent());
+
+        button.click();
+        copy.addToken("new");
+        assertEquals(Arrays.asList("token0", "token2", "new"), new ArrayList<>(copy.getValue()));
+        assertEquals(3, copy.buttons.size());
+    }
+
+    @Test
+    public void compactModeStaysWithinBudget() throws Exception {
+        assertTrue(bytesPerToken(TokenField.RenderMode.COMPACT) <= 24);
+        TokenField copy = deserialize(serialize(field(TokenField.RenderMode.COMPACT, 10)));
+        assertEquals(tokens(10), copy.cb.getTokenCaptions());
+    }
+
+    @Test
+    public void buttonsStayWithinBudget() throws Exception {
+        assertTrue(bytesPerToken(TokenField.RenderMode.BUTTONS) <= 500);
+    }
+
+    @Test
+    public void namedVocabularyIsSerializedByName() throws Exception {
+        SharedVocabulary vocabulary = SharedVocabulary.named("serialization-test");
+        for (String token : tokens(10000)) {
+            vocabulary.add(token);
+        }
+        TokenField field = new TokenField();
+        int withoutVocabulary = serialize(field).length;
+        field.setVocabulary(vocabulary);
+
+        byte[] bytes = serialize(field);
+        TokenField copy = deserialize(bytes);
+
+        assertTrue(bytes.length - withoutVocabulary <= 2048);
+        assertSame(vocabulary, ((VocabularyDataProvider) copy.getDataProvider()).getVocabulary());
+    }
+}
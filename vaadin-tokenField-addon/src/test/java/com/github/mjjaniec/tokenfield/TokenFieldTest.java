@@ -0,0 +1,386 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
+import com.vaadin.data.HasValue;
+import com.vaadin.server.ClientMethodInvocation;
+import com.vaadin.server.ServerRpcManager;
+import com.vaadin.ui.Component;
+import com.vaadin.ui.CssLayout;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenFieldTest {
+
+    private static List<Component> children(TokenField field) {
+        List<Component> result = new ArrayList<>();
+        field.getLayout().forEach(result::add);
+        return result;
+    }
+
+    @Test
+    public void addTokenFiresIncrementalValueChange() {
+        TokenField field = new TokenField();
+        field.addToken("a");
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.addToken("b");
+        field.addToken("b");
+
+        assertEquals(1, events.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a")), events.get(0).getOldValue());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")), events.get(0).getValue());
+    }
+
+    @Test
+    public void removeTokenFiresIncrementalValueChange() {
+        TokenField field = new TokenField();
+        field.addToken("a");
+        field.addToken("b");
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.removeToken("a");
+        field.removeToken("missing");
+
+        assertEquals(1, events.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")), events.get(0).getOldValue());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("b")), events.get(0).getValue());
+    }
+
+    @Test
+    public void tokensAreInsertedBeforeInput() {
+        TokenField field = new TokenField(new CssLayout(), TokenField.InsertPosition.BEFORE);
+        field.addToken("a");
+        field.addToken("b");
+
+        List<Component> children = children(field);
+        assertEquals(3, children.size());
+        assertSame(field.buttons.get("a"), children.get(0));
+        assertSame(field.buttons.get("b"), children.get(1));
+        assertSame(field.cb, children.get(2));
+    }
+
+    @Test
+    public void tokensAreAppendedAfterInput() {
+        TokenField field = new TokenField(new CssLayout(), TokenField.InsertPosition.AFTER);
+        field.addToken("a");
+        field.addToken("b");
+
+        List<Component> children = children(field);
+        assertSame(field.cb, children.get(0));
+        assertSame(field.buttons.get("b"), children.get(2));
+    }
+
+    @Test
+    public void setValueOnlyTouchesChangedTokens() {
+        TokenField field = new TokenField();
+        field.setValue(new LinkedHashSet<>(Arrays.asList("a", "b", "c")));
+        Component b = field.buttons.get("b");
+
+        field.setValue(new LinkedHashSet<>(Arrays.asList("b", "c", "d")));
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("b", "c", "d")), field.getValue());
+        assertSame(b, field.buttons.get("b"));
+        assertEquals(4, field.getLayout().getComponentCount());
+    }
+
+    @Test
+    public void setValueReportsRealOldValue() {
+        TokenField field = new TokenField();
+        field.setValue(new LinkedHashSet<>(Arrays.asList("a", "b")));
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.setValue(new LinkedHashSet<>(Arrays.asList("b", "c")));
+        field.setValue(new LinkedHashSet<>(Arrays.asList("b", "c")));
+
+        assertEquals(1, events.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "b")), events.get(0).getOldValue());
+    }
+
+    @Test
+    public void valuesAreSnapshots() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b"));
+        Set<String> before = field.getValue();
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.removeToken("a");
+        field.addToken("c");
+
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(before));
+        assertEquals(Arrays.asList("b"), new ArrayList<>(events.get(0).getValue()));
+        assertEquals(Arrays.asList("b", "c"), new ArrayList<>(field.getValue()));
+        assertSame(events.get(1).getOldValue(), events.get(0).getValue());
+    }
+
+    @Test
+    public void batchFiresSingleValueChange() {
+        TokenField field = new TokenField();
+        field.addToken("a");
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.batch(() -> {
+            field.addTokens(Arrays.asList("b", "c", "d"));
+            field.removeTokens(Arrays.asList("a", "c"));
+        });
+
+        assertEquals(1, events.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a")), events.get(0).getOldValue());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("b", "d")), events.get(0).getValue());
+
+        List<Component> children = children(field);
+        assertEquals(3, children.size());
+        assertSame(field.buttons.get("b"), children.get(0));
+        assertSame(field.buttons.get("d"), children.get(1));
+        assertSame(field.cb, children.get(2));
+    }
+
+    @Test
+    public void batchFiresSingleTokenDelta() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b"));
+
+        List<TokenDeltaEvent> events = new ArrayList<>();
+        field.addTokenDeltaListener(events::add);
+        field.batch(() -> {
+            field.addTokens(Arrays.asList("c", "d", "e"));
+            field.removeTokens(Arrays.asList("a", "d"));
+        });
+        field.setValue(new LinkedHashSet<>(Arrays.asList("b", "c", "e")));
+
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("c", "e"), new ArrayList<>(events.get(0).getAddedTokens()));
+        assertEquals(Arrays.asList("a"), new ArrayList<>(events.get(0).getRemovedTokens()));
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(events.get(0).getOldValue()));
+        assertSame(field, events.get(0).getComponent());
+    }
+
+    @Test
+    public void tokenDeltaValueIsTheValueAfterItsChange() {
+        TokenField field = new TokenField();
+        List<TokenDeltaEvent> events = new ArrayList<>();
+        field.addTokenDeltaListener(event -> {
+            if (event.getAddedTokens().contains("a")) {
+                field.addToken("b");
+            }
+        });
+        field.addTokenDeltaListener(events::add);
+
+        field.addToken("a");
+
+        assertEquals(2, events.size());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(events.get(0).getValue()));
+        assertEquals(Arrays.asList("a"), new ArrayList<>(events.get(1).getValue()));
+        assertEquals(Arrays.asList("a"), new ArrayList<>(events.get(0).getOldValue()));
+    }
+
+    @Test
+    public void compactCaptionChangesAreSentInsteadOfTheCaptions() {
+        TokenField field = new TokenField();
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        field.addToken("a");
+        field.cb.beforeClientResponse(true);
+        assertEquals(Arrays.asList("a"), field.cb.getState(false).tokens);
+        field.cb.retrievePendingRpcCalls();
+
+        field.batch(() -> {
+            field.addTokens(Arrays.asList("b", "c"));
+            field.removeToken("a");
+        });
+        field.cb.beforeClientResponse(false);
+
+        List<ClientMethodInvocation> calls = field.cb.retrievePendingRpcCalls();
+        assertEquals(2, calls.size());
+        assertEquals("insertTokens", calls.get(0).getMethodName());
+        assertEquals(Arrays.asList(1, Arrays.asList("b", "c")), Arrays.asList(calls.get(0).getParameters()));
+        assertEquals("removeTokens", calls.get(1).getMethodName());
+        assertEquals(Arrays.asList(0, 1), Arrays.asList(calls.get(1).getParameters()));
+        assertEquals(Arrays.asList("a"), field.cb.getState(false).tokens);
+        assertEquals(Arrays.asList("b", "c"), field.cb.getTokenCaptions());
+    }
+
+    @Test
+    public void batchWithoutNetChangeFiresNothing() {
+        TokenField field = new TokenField();
+        field.addToken("a");
+
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+        field.batch(() -> {
+            field.removeToken("a");
+            field.addToken("a");
+        });
+
+        assertEquals(0, events.size());
+    }
+
+    @Test
+    public void readOnlyAndInsertPositionTogglesOnlyMoveInput() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b", "c"));
+
+        field.setReadOnly(true);
+        assertEquals(3, field.getLayout().getComponentCount());
+        field.setReadOnly(false);
+        field.setTokenInsertPosition(TokenField.InsertPosition.AFTER);
+
+        List<Component> children = children(field);
+        assertSame(field.cb, children.get(0));
+        assertSame(field.buttons.get("a"), children.get(1));
+        assertSame(field.buttons.get("c"), children.get(3));
+    }
+
+    @Test
+    public void compactModeCreatesNoButtons() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b"));
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        field.addTokens(Arrays.asList("c", "d"));
+        field.removeToken("b");
+
+        assertEquals(0, field.buttons.size());
+        assertEquals(1, field.getLayout().getComponentCount());
+        assertEquals(Arrays.asList("a", "c", "d"), field.cb.getTokenCaptions());
+
+        field.setRenderMode(TokenField.RenderMode.BUTTONS);
+        assertEquals(null, field.cb.getTokenCaptions());
+        assertEquals(4, field.getLayout().getComponentCount());
+    }
+
+    @Test
+    public void compactModeClickRemovesTokenByIndex() {
+        TokenField field = new TokenField();
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        field.addTokens(Arrays.asList("a", "b", "c"));
+
+        field.cb.onTokenClick(1);
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a", "c")), field.getValue());
+        assertEquals(Arrays.asList("a", "c"), field.cb.getTokenCaptions());
+    }
+
+    private static List<String> tokens(int count) {
+        List<String> result = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            result.add("t" + i);
+        }
+        return result;
+    }
+
+    @Test
+    public void visibleTokenLimitRendersOnlyWindow() {
+        TokenField field = new TokenField();
+        field.setVisibleTokenLimit(10);
+        field.addTokens(tokens(1000));
+
+        assertEquals(1000, field.getValue().size());
+        assertEquals(10, field.buttons.size());
+        assertEquals(990, field.getHiddenTokenCount());
+        // 10 tokens, the expander and the input
+        assertEquals(12, field.getLayout().getComponentCount());
+
+        field.showMoreTokens();
+        assertEquals(20, field.buttons.size());
+        assertEquals(22, field.getLayout().getComponentCount());
+        assertSame(field.cb, children(field).get(21));
+
+        field.removeToken("t0");
+        assertEquals(20, field.buttons.size());
+        assertTrue(field.buttons.containsKey("t20"));
+        assertEquals(979, field.getHiddenTokenCount());
+    }
+
+    @Test
+    public void visibleTokenLimitInCompactMode() {
+        TokenField field = new TokenField();
+        field.setRenderMode(TokenField.RenderMode.COMPACT);
+        field.setVisibleTokenLimit(5);
+        field.addTokens(tokens(100));
+
+        assertEquals(tokens(5), field.cb.getTokenCaptions());
+        assertEquals(95, field.cb.getState(false).hiddenTokens);
+
+        field.cb.onShowMore();
+        assertEquals(tokens(10), field.cb.getTokenCaptions());
+
+        field.setVisibleTokenLimit(0);
+        assertEquals(tokens(100), field.cb.getTokenCaptions());
+        assertEquals(0, field.cb.getState(false).hiddenTokens);
+    }
+
+    @Test
+    public void coalescedDeletesAreAppliedAsOneBatch() {
+        TokenField field = new TokenField();
+        field.addTokens(Arrays.asList("a", "b", "c", "d"));
+        List<Set<String>> values = new ArrayList<>();
+        field.addValueChangeListener(e -> values.add(e.getValue()));
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).deleteTokens(3);
+
+        assertEquals(Arrays.asList("a"), new ArrayList<>(field.getValue()));
+        assertEquals(1, values.size());
+        assertEquals(3, field.cb.getState(false).deletedTokens);
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).deleteTokens(5);
+        assertTrue(field.getValue().isEmpty());
+        assertEquals(8, field.cb.getState(false).deletedTokens);
+    }
+
+    @Test
+    public void batchedAdditionsSkipRejectedTokens() {
+        TokenField field = new TokenField() {
+            @Override
+            protected void onTokenInput(String tokenId) {
+                if (!tokenId.startsWith("x")) {
+                    super.onTokenInput(tokenId);
+                }
+            }
+        };
+        List<Set<String>> values = new ArrayList<>();
+        field.addValueChangeListener(e -> values.add(e.getValue()));
+        String key = field.cb.getDataCommunicator().getKeyMapper().key("picked");
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).addTokens(
+                Arrays.asList("", key, "", "stale"), Arrays.asList("typed", "picked", "xrejected", "gone"));
+
+        assertEquals(Arrays.asList("typed", "picked"), new ArrayList<>(field.getValue()));
+        assertEquals(1, values.size());
+        assertEquals(4, field.cb.getState(false).addedTokens);
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).addTokens(
+                Arrays.asList("", ""), Arrays.asList("more"));
+
+        assertEquals(Arrays.asList("typed", "picked", "more"), new ArrayList<>(field.getValue()));
+        assertEquals(5, field.cb.getState(false).addedTokens);
+    }
+
+    @Test
+    public void pastedTokensArriveAsOneValueChange() {
+        TokenField field = new TokenField();
+        field.setTokenSeparators(TokenField.DEFAULT_TOKEN_SEPARATORS);
+        field.addToken("a");
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).addTokens(
+                Arrays.asList("", "", ""), Arrays.asList("b", "a", "c"));
+
+        assertEquals(",;\n\t", field.cb.getState(false).separators);
+        assertEquals(Arrays.asList("a", "b", "c"), new ArrayList<>(field.getValue()));
+        assertEquals(1, events.size());
+        assertEquals(new LinkedHashSet<>(Arrays.asList("a")), events.get(0).getOldValue());
+    }
+}
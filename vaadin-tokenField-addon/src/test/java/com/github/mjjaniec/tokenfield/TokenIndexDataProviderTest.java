@@ -0,0 +1,172 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.Query;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TokenIndexDataProviderTest {
+
+    private static List<String> fetch(TokenIndexDataProvider provider, String filter, int offset, int limit) {
+        return provider.fetch(new Query<>(offset, limit, null, null, filter)).collect(Collectors.toList());
+    }
+
+    @Test
+    public void answersPrefixQueriesCaseInsensitively() {
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(
+                Arrays.asList("beta", "Alpha", "alphabet", "gamma", "alp", "beta"));
+
+        assertEquals(5, provider.size());
+        assertEquals(Arrays.asList("alp", "Alpha", "alphabet"), fetch(provider, "AL", 0, 10));
+        assertEquals(3, provider.size(new Query<>("al")));
+        assertEquals(Arrays.asList("Alpha"), fetch(provider, "al", 1, 1));
+        assertEquals(0, provider.size(new Query<>("x")));
+        assertEquals(5, provider.size(new Query<>()));
+    }
+
+    @Test
+    public void rememberedTokensAreDeduplicated() {
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(Arrays.asList("a"));
+
+        provider.rememberToken("b");
+        provider.rememberToken("b");
+
+        assertTrue(provider.contains("b"));
+        assertFalse(provider.contains("c"));
+        assertEquals(2, provider.size());
+    }
+
+    @Test
+    public void pagesMatchLinearScanAcrossInserts() {
+        Random random = new Random(7);
+        List<String> initial = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            initial.add(word(random));
+        }
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(initial);
+        TreeSet<String> expected = new TreeSet<>(
+                Comparator.<String, String>comparing(s -> s.toLowerCase(Locale.ROOT)).thenComparing(s -> s));
+        expected.addAll(initial);
+
+        for (int i = 0; i < 500; i++) {
+            String token = word(random);
+            provider.add(token);
+            expected.add(token);
+
+            if (i % 25 == 0) {
+                String prefix = word(random).substring(0, 1 + random.nextInt(2));
+                List<String> all = expected.stream()
+                        .filter(s -> s.toLowerCase(Locale.ROOT).startsWith(prefix.toLowerCase(Locale.ROOT)))
+                        .collect(Collectors.toList());
+                assertEquals(all.size(), provider.size(new Query<>(prefix)));
+                int offset = all.isEmpty() ? 0 : random.nextInt(all.size());
+                assertEquals(all.subList(offset, Math.min(all.size(), offset + 10)),
+                        fetch(provider, prefix, offset, 10));
+            }
+        }
+        assertEquals(expected.size(), provider.size());
+    }
+
+    @Test
+    public void containsMatchesAreRankedByPosition() {
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(
+                Arrays.asList("metadata", "data", "database", "mydata", "dat", "other"));
+        provider.setFilteringMode(TokenField.FilteringMode.CONTAINS);
+
+        assertEquals(Arrays.asList("data", "database", "mydata", "metadata"), fetch(provider, "DATA", 0, 10));
+        assertEquals(4, provider.size(new Query<>("data")));
+        assertEquals(Arrays.asList("mydata"), fetch(provider, "data", 2, 1));
+
+        provider.rememberToken("bigdata");
+        assertEquals(Arrays.asList("data", "database", "mydata", "bigdata", "metadata"),
+                fetch(provider, "data", 0, 10));
+    }
+
+    @Test
+    public void fuzzyMatchesTolerateTypos() {
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(
+                Arrays.asList("javascript", "java", "jakarta", "kotlin", "typescript"));
+        provider.setFilteringMode(TokenField.FilteringMode.FUZZY);
+
+        assertEquals(Arrays.asList("javascript"), fetch(provider, "javascirpt", 0, 10));
+        assertEquals(Arrays.asList("kotlin"), fetch(provider, "kotlim", 0, 10));
+        assertEquals(Arrays.asList("java", "javascript", "jakarta"), fetch(provider, "java", 0, 10));
+        assertEquals(0, provider.size(new Query<>("python")));
+    }
+
+    @Test
+    public void containsMatchesLinearScan() {
+        Random random = new Random(11);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            words.add(word(random));
+        }
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(words);
+        provider.setFilteringMode(TokenField.FilteringMode.CONTAINS);
+
+        for (int i = 0; i < 50; i++) {
+            String w = word(random);
+            String filter = w.substring(0, 1 + random.nextInt(w.length()));
+            TreeSet<String> expected = words.stream()
+                    .filter(s -> s.toLowerCase(Locale.ROOT).contains(filter.toLowerCase(Locale.ROOT)))
+                    .collect(Collectors.toCollection(TreeSet::new));
+            assertEquals(expected, new TreeSet<>(fetch(provider, filter, 0, Integer.MAX_VALUE)));
+            assertEquals(expected.size(), provider.size(new Query<>(filter)));
+        }
+    }
+
+    @Test
+    public void shortContainsFiltersArePagedInRankOrder() {
+        Random random = new Random(13);
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            words.add(word(random));
+        }
+        TokenIndexDataProvider provider = new TokenIndexDataProvider(words);
+        provider.setFilteringMode(TokenField.FilteringMode.CONTAINS);
+
+        for (String filter : Arrays.asList("a", "E", "ab", "Qu", "zz")) {
+            String needle = filter.toLowerCase(Locale.ROOT);
+            List<String> expected = new TreeSet<>(words).stream()
+                    .filter(s -> s.toLowerCase(Locale.ROOT).contains(needle))
+                    .sorted(Comparator.<String>comparingInt(s -> s.toLowerCase(Locale.ROOT).indexOf(needle))
+                            .thenComparingInt(String::length)
+                            .thenComparing(s -> s))
+                    .collect(Collectors.toList());
+            assertEquals(expected.size(), provider.size(new Query<>(filter)));
+            for (int offset : new int[]{0, 7, expected.size() / 2, expected.size()}) {
+                assertEquals(expected.subList(Math.min(offset, expected.size()), Math.min(expected.size(), offset + 10)),
+                        fetch(provider, filter, offset, 10));
+            }
+        }
+    }
+
+    @Test
+    public void prefixDistanceIgnoresTheRestOfTheText() {
+        assertEquals(0, TrigramIndex.prefixDistance("abc", "abcdef", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("abd", "abcdef", 2));
+        assertEquals(1, TrigramIndex.prefixDistance("abxd", "abcd", 2));
+        assertEquals(3, TrigramIndex.prefixDistance("xyz", "abc", 2));
+    }
+
+    private static String word(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int length = 3 + random.nextInt(5);
+        for (int i = 0; i < length; i++) {
+            char c = (char) ('a' + random.nextInt(6));
+            sb.append(random.nextInt(10) == 0 ? Character.toUpperCase(c) : c);
+        }
+        return sb.toString();
+    }
+}
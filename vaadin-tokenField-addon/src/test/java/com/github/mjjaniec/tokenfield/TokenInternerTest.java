@@ -0,0 +1,62 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.ui.Button;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TokenInternerTest {
+
+    @Test
+    public void fieldsShareInternedTokens() {
+        TokenInterner interner = new TokenInterner(16);
+        TokenField first = new TokenField();
+        TokenField second = new TokenField();
+        first.setTokenInterner(interner);
+        second.setTokenInterner(interner);
+
+        String a = new String("urgent");
+        String b = new String("urgent");
+        assertNotSame(a, b);
+        first.addToken(a);
+        second.addToken(b);
+
+        assertSame(first.getValue().iterator().next(), second.getValue().iterator().next());
+        Button b1 = first.buttons.get("urgent");
+        Button b2 = second.buttons.get("urgent");
+        assertSame(b1.getCaption(), b2.getCaption());
+        assertEquals(2, interner.getHitCount());
+        assertTrue(interner.getSavedBytes() > 0);
+    }
+
+    @Test
+    public void tableIsBounded() {
+        TokenInterner interner = new TokenInterner(3);
+        String[] strings = new String[100];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = interner.intern("token" + i);
+        }
+
+        assertTrue(interner.size() <= 4);
+        assertEquals(0, interner.getHitCount());
+    }
+
+    @Test
+    public void internIsOffByDefault() {
+        TokenField field = new TokenField();
+        String a = new String("urgent");
+        field.addToken(a);
+
+        assertSame(a, field.getValue().iterator().next());
+    }
+
+    @Test
+    public void sizesFollowTheStringsOfTheJvm() {
+        boolean compact = System.getProperty("java.specification.version").indexOf('.') < 0;
+        assertEquals(compact ? 24 + 32 : 24 + 48, TokenInterner.sizeOf("abcdefghijklmnop"));
+        assertEquals(24 + 48, TokenInterner.sizeOf("abcdefghijklmno\u0142"));
+    }
+}
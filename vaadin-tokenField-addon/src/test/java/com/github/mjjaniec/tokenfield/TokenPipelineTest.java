@@ -0,0 +1,77 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
+import com.vaadin.data.HasValue;
+import com.vaadin.server.ServerRpcManager;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class TokenPipelineTest {
+
+    private static TokenPipeline pipeline() {
+        return new TokenPipeline()
+                .normalize(String::trim)
+                .validate(s -> !s.isEmpty())
+                .normalize(s -> s.toLowerCase(Locale.ROOT));
+    }
+
+    @Test
+    public void stagesAreAppliedInOrder() {
+        TokenPipeline pipeline = pipeline();
+
+        assertEquals("java", pipeline.apply("  Java "));
+        assertNull(pipeline.apply("   "));
+        assertEquals(Arrays.asList("a", null, "b"), pipeline.applyAll(Arrays.asList("A", " ", "b")));
+        assertEquals(Arrays.asList("a", "b"), pipeline.process(Arrays.asList("A", " ", "b", "a ")));
+    }
+
+    @Test
+    public void parallelProcessingKeepsOrder() {
+        List<String> input = IntStream.range(0, 50000).mapToObj(i -> " Token" + (i % 20000))
+                .collect(Collectors.toList());
+        TokenPipeline sequential = pipeline();
+        sequential.setParallelThreshold(Integer.MAX_VALUE);
+        TokenPipeline parallel = pipeline();
+        parallel.setParallelThreshold(1);
+
+        List<String> expected = sequential.process(input);
+        assertEquals(20000, expected.size());
+        assertEquals("token0", expected.get(0));
+        assertEquals(expected, parallel.process(input));
+    }
+
+    @Test
+    public void acceptedTokensAreInputAsOneBatch() {
+        TokenField field = new TokenField();
+        field.setTokenPipeline(pipeline().validate(s -> !s.startsWith("#")));
+        field.addToken("a");
+        List<HasValue.ValueChangeEvent<Set<String>>> events = new ArrayList<>();
+        field.addValueChangeListener(events::add);
+
+        field.inputTokens(Arrays.asList("B", " a", "#c", "", "d", "b"));
+
+        assertEquals(Arrays.asList("a", "b", "d"), new ArrayList<>(field.getValue()));
+        assertEquals(1, events.size());
+    }
+
+    @Test
+    public void typedTokensGoThroughThePipeline() {
+        TokenField field = new TokenField();
+        field.setTokenPipeline(pipeline());
+
+        ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).addTokens(
+                Arrays.asList("", "", ""), Arrays.asList(" Kotlin", " ", "kotlin"));
+
+        assertEquals(Arrays.asList("kotlin"), new ArrayList<>(field.getValue()));
+    }
+}
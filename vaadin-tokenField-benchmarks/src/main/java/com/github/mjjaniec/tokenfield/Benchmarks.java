@@ -0,0 +1,26 @@
+package com.github.mjjaniec.tokenfield;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks, like <code>org.openjdk.jmh.Main</code> but always with
+ * the GC profiler (<code>-prof gc</code>), so the allocation rate of each
+ * benchmark (<code>gc.alloc.rate.norm</code>, in bytes per operation) is
+ * reported next to its time. Takes the usual JMH options, e.g.
+ * <pre>
+ * java -jar target/benchmarks.jar TokenFieldBenchmark -p tokenCount=1000,100000
+ * </pre>
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+    }
+}
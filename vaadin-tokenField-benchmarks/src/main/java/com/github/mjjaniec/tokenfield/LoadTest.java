@@ -0,0 +1,359 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.github.mjjaniec.tokenfield.client.TokenFieldServerRpc;
+import com.vaadin.server.ClientConnector;
+import com.vaadin.server.ServerRpcManager;
+import com.vaadin.server.VaadinRequest;
+import com.vaadin.server.VaadinSession;
+import com.vaadin.server.communication.ClientRpcWriter;
+import com.vaadin.server.communication.SharedStateWriter;
+import com.vaadin.shared.ui.combobox.ComboBoxServerRpc;
+import com.vaadin.ui.ConnectorTracker;
+import com.vaadin.ui.UI;
+import com.vaadin.ui.VerticalLayout;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Drives many sessions with token fields concurrently, without a browser or a
+ * servlet container, to find out how many of them one JVM can serve.
+ * <p>
+ * Each session has one UI with a few token fields suggesting from one shared
+ * vocabulary. The worker threads play the clients: each request goes to a
+ * random session, locks it and makes one of the calls a client would -
+ * typing a filter, selecting or typing a token, deleting the last token with
+ * backspace (through {@link TokenFieldServerRpc#deleteToken()}) - or sets a
+ * new value from the server side, then writes the response, i.e. the state
+ * changes and client RPC calls of the dirty connectors. As there are more
+ * threads than sessions can take at once, requests wait for the session lock
+ * like concurrent requests of one user do.
+ * </p>
+ * <p>
+ * Reports the throughput, the latency percentiles of each operation (from
+ * before locking the session, so including the wait for the lock) and the
+ * heap taken by a session. There is no client dropping the suggestions it no
+ * longer shows, so the key mappers keep all the suggestions ever sent: the
+ * heap after the run is an upper bound. Configured by system properties, e.g.
+ * </p>
+ * <pre>
+ * java -Dsessions=1000 -Dthreads=32 -cp target/benchmarks.jar com.github.mjjaniec.tokenfield.LoadTest
+ * </pre>
+ */
+public class LoadTest {
+
+    private static final int SESSIONS = Integer.getInteger("sessions", 200);
+    private static final int THREADS = Integer.getInteger("threads", 4 * Runtime.getRuntime().availableProcessors());
+    private static final int FIELDS = Integer.getInteger("fields", 3);
+    private static final int TOKENS = Integer.getInteger("tokens", 20);
+    private static final int VOCABULARY = Integer.getInteger("vocabulary", 10000);
+    private static final int BULK = Integer.getInteger("bulk", 50);
+    private static final int WARMUP_SECONDS = Integer.getInteger("warmup", 10);
+    private static final int SECONDS = Integer.getInteger("seconds", 30);
+
+    /**
+     * The operations, with their shares of the requests in percent
+     */
+    enum Operation {
+        FILTER(50), ADD(20), DELETE(20), SET_VALUE(10);
+
+        final int share;
+
+        Operation(int share) {
+            this.share = share;
+        }
+
+        static Operation pick(int percent) {
+            for (Operation operation : values()) {
+                percent -= operation.share;
+                if (percent < 0) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException();
+        }
+    }
+
+    /**
+     * A session without a service, holding one UI
+     */
+    static class Session extends VaadinSession {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        final UI ui = new UI() {
+            @Override
+            protected void init(VaadinRequest request) {
+            }
+        };
+
+        final List<TokenField> fields = new ArrayList<>();
+
+        Session(SharedVocabulary vocabulary, List<String> words) {
+            super(null);
+            lock();
+            try {
+                ui.setSession(this);
+                VerticalLayout layout = new VerticalLayout();
+                for (int i = 0; i < FIELDS; i++) {
+                    TokenField field = new TokenField("Field " + i);
+                    field.setVocabulary(vocabulary);
+                    field.setValue(randomTokens(words, TOKENS));
+                    fields.add(field);
+                    layout.addComponent(field);
+                }
+                ui.setContent(layout);
+                respond();
+            } finally {
+                unlock();
+            }
+        }
+
+        @Override
+        public Lock getLockInstance() {
+            return lock;
+        }
+
+        @Override
+        public void lock() {
+            lock.lock();
+        }
+
+        @Override
+        public void unlock() {
+            lock.unlock();
+        }
+
+        @Override
+        public String createConnectorId(ClientConnector connector) {
+            return String.valueOf(getNextConnectorId());
+        }
+
+        @Override
+        public Future<Void> access(Runnable runnable) {
+            lock();
+            try {
+                runnable.run();
+            } finally {
+                unlock();
+            }
+            return null;
+        }
+
+        /**
+         * Writes the changes of the dirty connectors the way a response to
+         * the client does, and marks them clean.
+         */
+        void respond() {
+            ConnectorTracker tracker = ui.getConnectorTracker();
+            Set<ClientConnector> processed = new HashSet<>();
+            List<ClientConnector> dirty;
+            while (!(dirty = dirtyConnectors(tracker, processed)).isEmpty()) {
+                for (ClientConnector connector : dirty) {
+                    boolean initialized = tracker.isClientSideInitialized(connector);
+                    processed.add(connector);
+                    connector.beforeClientResponse(!initialized);
+                }
+            }
+            tracker.setWritingResponse(true);
+            try {
+                StringWriter writer = new StringWriter();
+                new SharedStateWriter().write(ui, writer);
+                new ClientRpcWriter().write(ui, writer);
+                tracker.markAllConnectorsClean();
+                for (ClientConnector connector : processed) {
+                    tracker.markClientSideInitialized(connector);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                tracker.setWritingResponse(false);
+                tracker.cleanConnectorMap(true);
+            }
+        }
+
+        private static List<ClientConnector> dirtyConnectors(ConnectorTracker tracker, Set<ClientConnector> processed) {
+            List<ClientConnector> dirty = new ArrayList<>();
+            for (ClientConnector connector : tracker.getDirtyVisibleConnectors()) {
+                if (!processed.contains(connector)) {
+                    dirty.add(connector);
+                }
+            }
+            return dirty;
+        }
+
+        /**
+         * Handles one request doing the given operation on a random field.
+         */
+        void request(Operation operation, List<String> words) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            TokenField field = fields.get(random.nextInt(fields.size()));
+            String word = words.get(random.nextInt(words.size()));
+            switch (operation) {
+                case FILTER:
+                    ServerRpcManager.getRpcProxy(field.cb, ComboBoxServerRpc.class)
+                            .setFilter(word.substring(0, 1 + random.nextInt(Math.min(4, word.length()))));
+                    break;
+                case ADD:
+                    String key = "";
+                    if (random.nextBoolean()) {
+                        // a selected suggestion, sent to the client before
+                        key = field.cb.getDataCommunicator().getKeyMapper().key(word);
+                    }
+                    ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class)
+                            .addTokens(Collections.singletonList(key), Collections.singletonList(word));
+                    break;
+                case DELETE:
+                    ServerRpcManager.getRpcProxy(field.cb, TokenFieldServerRpc.class).deleteToken();
+                    break;
+                default:
+                    field.setValue(randomTokens(words, BULK));
+            }
+            respond();
+        }
+    }
+
+    /**
+     * The latencies of one operation measured by one thread, in nanoseconds
+     */
+    static class Latencies {
+        long[] values = new long[1 << 16];
+        int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        static long[] merge(List<Latencies> latencies) {
+            long[] merged = new long[latencies.stream().mapToInt(l -> l.size).sum()];
+            int offset = 0;
+            for (Latencies l : latencies) {
+                System.arraycopy(l.values, 0, merged, offset, l.size);
+                offset += l.size;
+            }
+            Arrays.sort(merged);
+            return merged;
+        }
+    }
+
+    private static Set<String> randomTokens(List<String> words, int count) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Set<String> tokens = new LinkedHashSet<>();
+        while (tokens.size() < count) {
+            tokens.add(words.get(random.nextInt(words.size())));
+        }
+        return tokens;
+    }
+
+    private static long usedHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Runs the requests of the given threads for the given time.
+     *
+     * @return the latencies measured by each thread, indexed by operation
+     */
+    private static List<Latencies[]> run(List<Session> sessions, List<String> words, int seconds)
+            throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        List<Latencies[]> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            Thread thread = new Thread(() -> {
+                Latencies[] latencies = new Latencies[Operation.values().length];
+                Arrays.setAll(latencies, i -> new Latencies());
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                try {
+                    long start;
+                    while ((start = System.nanoTime()) < end) {
+                        Session session = sessions.get(random.nextInt(sessions.size()));
+                        Operation operation = Operation.pick(random.nextInt(100));
+                        session.lock();
+                        try {
+                            session.request(operation, words);
+                        } finally {
+                            session.unlock();
+                        }
+                        latencies[operation.ordinal()].add(System.nanoTime() - start);
+                    }
+                } finally {
+                    results.add(latencies);
+                    done.countDown();
+                }
+            }, "client-" + t);
+            thread.start();
+        }
+        done.await();
+        return results;
+    }
+
+    private static void report(List<Latencies[]> results, int seconds) {
+        System.out.printf("%-10s %10s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "ops/s", "p50 us", "p90 us", "p99 us", "p99.9 us", "max us", "count");
+        long total = 0;
+        for (Operation operation : Operation.values()) {
+            List<Latencies> latencies = new ArrayList<>();
+            for (Latencies[] result : results) {
+                latencies.add(result[operation.ordinal()]);
+            }
+            long[] sorted = Latencies.merge(latencies);
+            total += sorted.length;
+            if (sorted.length == 0) {
+                continue;
+            }
+            System.out.printf("%-10s %10.0f %10.1f %10.1f %10.1f %10.1f %10.1f %10d%n",
+                    operation, (double) sorted.length / seconds,
+                    percentile(sorted, 0.5), percentile(sorted, 0.9), percentile(sorted, 0.99),
+                    percentile(sorted, 0.999), sorted[sorted.length - 1] / 1000.0, sorted.length);
+        }
+        System.out.printf("%-10s %10.0f%n", "total", (double) total / seconds);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)] / 1000.0;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.out.printf("%d sessions with %d fields of %d tokens, %d threads, vocabulary of %d tokens%n",
+                SESSIONS, FIELDS, TOKENS, THREADS, VOCABULARY);
+        List<String> words = Words.tokens(VOCABULARY);
+        SharedVocabulary vocabulary = new SharedVocabulary(words);
+
+        long before = usedHeap();
+        List<Session> sessions = new ArrayList<>(SESSIONS);
+        for (int i = 0; i < SESSIONS; i++) {
+            sessions.add(new Session(vocabulary, words));
+        }
+        long created = usedHeap();
+        System.out.printf("heap per session: %d KB after creation%n", (created - before) / SESSIONS / 1024);
+
+        run(sessions, words, WARMUP_SECONDS);
+        report(run(sessions, words, SECONDS), SECONDS);
+
+        System.out.printf("heap per session: %d KB after the run%n", (usedHeap() - before) / sessions.size() / 1024);
+    }
+}
@@ -0,0 +1,88 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.ListDataProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembering new tokens as suggestions, into a vocabulary of
+ * {@link #tokenCount} tokens held by each kind of data provider. The
+ * vocabulary is created anew for each iteration, as remembering new tokens
+ * grows it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RememberTokenBenchmark {
+
+    public enum Provider {
+        LIST, TOKEN_INDEX, SHARED_VOCABULARY
+    }
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int tokenCount;
+
+    @Param({"LIST", "TOKEN_INDEX", "SHARED_VOCABULARY"})
+    public Provider provider;
+
+    private List<String> tokens;
+
+    private TokenField field;
+
+    private int next;
+
+    @Setup
+    public void setUpTokens() {
+        tokens = Words.tokens(tokenCount);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        field = new TokenField();
+        switch (provider) {
+            case LIST:
+                field.setDataProvider(new ListDataProvider<>(new ArrayList<>(tokens)));
+                break;
+            case TOKEN_INDEX:
+                field.setDataProvider(new TokenIndexDataProvider(tokens));
+                break;
+            default:
+                field.setVocabulary(new SharedVocabulary(tokens));
+        }
+        next = 0;
+    }
+
+    /**
+     * Remembers a token not in the vocabulary yet.
+     */
+    @Benchmark
+    public void rememberNewToken() {
+        field.rememberToken("new" + next++);
+    }
+
+    /**
+     * Remembers a token already in the vocabulary, which is dropped as a
+     * duplicate.
+     */
+    @Benchmark
+    public void rememberKnownToken() {
+        field.rememberToken(tokens.get(next++ % tokenCount));
+    }
+}
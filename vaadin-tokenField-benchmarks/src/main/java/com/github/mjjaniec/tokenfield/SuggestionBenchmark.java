@@ -0,0 +1,93 @@
+package com.github.mjjaniec.tokenfield;
+
+import com.vaadin.data.provider.DataProvider;
+import com.vaadin.data.provider.ListDataProvider;
+import com.vaadin.data.provider.Query;
+import com.vaadin.server.SerializablePredicate;
+import com.vaadin.ui.ComboBox;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering suggestions out of {@link #tokenCount} tokens: what the input
+ * queries when the user types a filter, i.e. the number of matches and the
+ * first page of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SuggestionBenchmark {
+
+    private static final int PAGE_SIZE = 10;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int tokenCount;
+
+    @Param({"STARTS_WITH", "CONTAINS", "FUZZY"})
+    public TokenField.FilteringMode mode;
+
+    /**
+     * A short filter matching many tokens, and a longer one, with a typo for
+     * the fuzzy mode
+     */
+    @Param({"ka", "lominer"})
+    public String filter;
+
+    private TokenIndexDataProvider tokenIndex;
+
+    private DataProvider<String, String> list;
+
+    private SharedVocabulary vocabulary;
+
+    @Setup
+    public void setUp() {
+        tokenIndex = new TokenIndexDataProvider(Words.tokens(tokenCount));
+        tokenIndex.setFilteringMode(mode);
+        ComboBox.CaptionFilter captionFilter = TokenField.captionFilter(mode);
+        list = new ListDataProvider<>(new ArrayList<>(Words.tokens(tokenCount))).withConvertedFilter(
+                text -> (SerializablePredicate<String>) token -> captionFilter.test(token, text));
+        vocabulary = new SharedVocabulary(Words.tokens(tokenCount));
+        // the first query builds the index
+        tokenIndex.size(new Query<>(filter));
+    }
+
+    private void query(DataProvider<String, String> provider, Blackhole blackhole) {
+        blackhole.consume(provider.size(new Query<>(filter)));
+        provider.fetch(new Query<>(0, PAGE_SIZE, null, null, filter)).forEach(blackhole::consume);
+    }
+
+    @Benchmark
+    public void tokenIndex(Blackhole blackhole) {
+        query(tokenIndex, blackhole);
+    }
+
+    @Benchmark
+    public void listDataProvider(Blackhole blackhole) {
+        query(list, blackhole);
+    }
+
+    /**
+     * A shared vocabulary always matches by prefix, whatever the mode.
+     */
+    @Benchmark
+    public void sharedVocabulary(Blackhole blackhole) {
+        blackhole.consume(vocabulary.count(filter));
+        vocabulary.fetch(filter, 0, PAGE_SIZE).forEach(blackhole::consume);
+    }
+}
@@ -0,0 +1,121 @@
+package com.github.mjjaniec.tokenfield;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Changes to the tokens of a field that already has {@link #tokenCount} of
+ * them. Each benchmark leaves the field with as many tokens as before, so
+ * the measured cost does not drift with the number of invocations.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TokenFieldBenchmark {
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    public int tokenCount;
+
+    @Param({"BUTTONS", "COMPACT"})
+    public TokenField.RenderMode renderMode;
+
+    private TokenField field;
+
+    private String middle;
+
+    private Set<String> value;
+
+    /**
+     * The value with every tenth token replaced by a new one
+     */
+    private Set<String> changedValue;
+
+    private boolean flip;
+
+    @Setup
+    public void setUp() {
+        List<String> tokens = Words.tokens(tokenCount);
+        field = new TokenField();
+        field.setRenderMode(renderMode);
+        field.addTokens(tokens);
+        // the field was rendered, later responses carry the changes
+        field.cb.beforeClientResponse(true);
+        middle = tokens.get(tokenCount / 2);
+        value = new LinkedHashSet<>(tokens);
+        changedValue = new LinkedHashSet<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            changedValue.add(i % 10 == 0 ? "changed" + i : tokens.get(i));
+        }
+    }
+
+    /**
+     * Adds a new token at the end, then removes it.
+     */
+    @Benchmark
+    public void addToken() {
+        field.addToken("new");
+        field.removeToken("new");
+    }
+
+    /**
+     * Adds a new token at the end and removes it, collecting what the input
+     * sends to the client after each; in {@link TokenField.RenderMode#COMPACT}
+     * that is the changed caption, not all of them.
+     */
+    @Benchmark
+    public void addTokenResponse(Blackhole blackhole) {
+        field.addToken("new");
+        field.cb.beforeClientResponse(false);
+        blackhole.consume(field.cb.retrievePendingRpcCalls());
+        field.removeToken("new");
+        field.cb.beforeClientResponse(false);
+        blackhole.consume(field.cb.retrievePendingRpcCalls());
+    }
+
+    /**
+     * Removes a token from the middle, then adds it back at the end.
+     */
+    @Benchmark
+    public void removeToken() {
+        field.removeToken(middle);
+        field.addToken(middle);
+    }
+
+    /**
+     * Sets a value differing in a tenth of the tokens, diffed against the
+     * current tokens.
+     */
+    @Benchmark
+    public void setValue() {
+        field.setValue(flip ? value : changedValue);
+        flip = !flip;
+    }
+
+    /**
+     * Moves the input from after the tokens to before them and back, which
+     * brings the whole layout in line with the tokens.
+     */
+    @Benchmark
+    public void rebuild() {
+        field.setTokenInsertPosition(flip ? TokenField.InsertPosition.AFTER : TokenField.InsertPosition.BEFORE);
+        flip = !flip;
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.mjjaniec.tokenfield;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates reproducible, word-like tokens, so that filters match realistic
+ * shares of them.
+ */
+final class Words {
+
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ne", "ru", "ta", "shi", "po", "ven", "dor", "al", "eb"
+    };
+
+    private Words() {
+    }
+
+    /**
+     * Gets the given number of distinct tokens of two to five syllables,
+     * always the same ones for the same count.
+     *
+     * @param count the number of tokens
+     * @return the tokens, in random order
+     */
+    static List<String> tokens(int count) {
+        Random random = new Random(42);
+        Set<String> tokens = new LinkedHashSet<>();
+        StringBuilder sb = new StringBuilder();
+        while (tokens.size() < count) {
+            sb.setLength(0);
+            for (int i = 2 + random.nextInt(4); i > 0; i--) {
+                sb.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+            }
+            if (tokens.size() > 20000) {
+                // there are too few combinations for the largest counts
+                sb.append(random.nextInt(1000));
+            }
+            tokens.add(sb.toString());
+        }
+        return new ArrayList<>(tokens);
+    }
+}
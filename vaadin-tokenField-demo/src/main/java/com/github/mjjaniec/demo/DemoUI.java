@@ -63,31 +63,9 @@ public class DemoUI extends UI
                 p.setContent(l);
                 addComponent(p);
 
-                TokenField f = new TokenField() {
-
-                    @Override
-                    protected void onTokenInput(String tokenId) {
-                        String[] tokens = ((String) tokenId).split(",");
-                        for (String token : tokens) {
-                            token = token.trim();
-                            if (token.length() > 0) {
-                                super.onTokenInput(token);
-                            }
-                        }
-                    }
-
-                    @Override
-                    protected void rememberToken(String tokenId) {
-                        String[] tokens = ((String) tokenId).split(",");
-                        for (String token : tokens) {
-                            token = token.trim();
-                            if (token.length() > 0) {
-                                super.rememberToken(token);
-                            }
-                        }
-                    }
-
-                };
+                // pasted or typed text is split into tokens in the browser
+                TokenField f = new TokenField();
+                f.setTokenSeparators(TokenField.DEFAULT_TOKEN_SEPARATORS);
                 f.setInputPrompt("tag, another, yetanother");
                 l.addComponent(f);
 